@@ -32,6 +32,10 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        // JVM unit tests run against the stub android.jar (Log, SystemClock)
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -54,11 +58,18 @@ dependencies {
     // Volley for API requests
     implementation("com.android.volley:volley:1.2.1")
     
+    // OkHttp for the analyzer transport (keep-alive, HTTP/2)
+    implementation("com.squareup.okhttp3:okhttp:4.12.0")
+    
     // Gson for JSON parsing
     implementation("com.google.code.gson:gson:2.10.1")
     
+    // WorkManager for the background analysis queue drainer
+    implementation("androidx.work:work-runtime:2.9.1")
+    
     // Core testing
     testImplementation("junit:junit:4.13.2")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
+    androidTestImplementation("androidx.work:work-testing:2.9.1")
 }
\ No newline at end of file
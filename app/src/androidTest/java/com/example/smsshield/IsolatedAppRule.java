@@ -0,0 +1,96 @@
+package com.example.smsshield;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import androidx.room.Room;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.smsshield.api.AnalysisQueue;
+import com.example.smsshield.api.SmsAnalyzerService;
+import com.example.smsshield.api.VerdictCache;
+import com.example.smsshield.database.SmsShieldDatabase;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a test away from the installed app's data. While the rule is active
+ * the app's database is replaced by an empty in-memory one, and
+ * {@link #getContext()} hands out shared preferences under names of their own
+ * that are deleted afterwards, so settings such as the confidence band never
+ * leak into the app or into other tests.
+ *
+ * Code under test has to be given {@link #getContext()} instead of the
+ * instrumentation's target context for its preferences to be isolated.
+ */
+public class IsolatedAppRule extends ExternalResource {
+
+    private final String prefsPrefix = "test_" + System.nanoTime() + "_";
+    private final Set<String> prefsNames = ConcurrentHashMap.newKeySet();
+    private Context context;
+    private SmsShieldDatabase database;
+
+    @Override
+    protected void before() {
+        Context target = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context = new IsolatedContext(target);
+        database = Room.inMemoryDatabaseBuilder(target, SmsShieldDatabase.class).build();
+        SmsShieldDatabase.setInstanceForTesting(database);
+        // Both keep a DAO of whatever database they were created on
+        VerdictCache.resetForTesting();
+        AnalysisQueue.resetForTesting();
+        // Read from the preferences, which are about to be replaced or deleted
+        SmsAnalyzerService.resetConfidenceBandForTesting();
+    }
+
+    @Override
+    protected void after() {
+        SmsShieldDatabase.setInstanceForTesting(null);
+        VerdictCache.resetForTesting();
+        AnalysisQueue.resetForTesting();
+        SmsAnalyzerService.resetConfidenceBandForTesting();
+        // Not closed: writes the test started may still be running on background executors
+        database = null;
+        for (String name : prefsNames) {
+            context.deleteSharedPreferences(name);
+        }
+    }
+
+    /** The context to hand to code under test; it is its own application context. */
+    public Context getContext() {
+        return context;
+    }
+
+    /** The in-memory database standing in for the app's. */
+    public SmsShieldDatabase getDatabase() {
+        return database;
+    }
+
+    private final class IsolatedContext extends ContextWrapper {
+
+        IsolatedContext(Context base) {
+            super(base);
+        }
+
+        // Singletons keep the application context, which must stay isolated too
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            prefsNames.add(name);
+            return super.getSharedPreferences(prefsPrefix + name, mode);
+        }
+
+        @Override
+        public boolean deleteSharedPreferences(String name) {
+            return super.deleteSharedPreferences(prefsPrefix + name);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that analyses share one network client, so the number of live
+ * threads does not grow with the number of messages analyzed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalyzerClientThreadTest {
+
+    private static final int WARM_UP_ANALYSES = 200;
+    private static final int ANALYSES = 10000;
+    private static final int WINDOW = 100;
+    // Room, binder and finalizer threads may come and go independently of the analyzer
+    private static final int THREAD_SLACK = 4;
+    // Far above the backend's rate limit; the stub is not rate limited
+    private static final double UNLIMITED_RATE_PER_SECOND = 100000;
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private MessageRepository repository;
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        server = StubAnalyzerServer.start();
+        repository = new MessageRepository(context);
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+        AnalyzerClient.setRateLimit(UNLIMITED_RATE_PER_SECOND, WINDOW);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AnalyzerClient.setRateLimit(AnalyzerClient.DEFAULT_RATE_PER_SECOND, AnalyzerClient.DEFAULT_RATE_BURST);
+        AnalyzerClient.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void threadCountStaysFlat() throws Exception {
+        runAnalyses(0, WARM_UP_ANALYSES);
+        int baseline = Thread.getAllStackTraces().size();
+
+        runAnalyses(WARM_UP_ANALYSES, ANALYSES);
+        int after = Thread.getAllStackTraces().size();
+
+        assertTrue("Threads grew from " + baseline + " to " + after, after <= baseline + THREAD_SLACK);
+        assertEquals(WARM_UP_ANALYSES + ANALYSES, server.getRequests("/analyze").size());
+    }
+
+    // Builds a service per analysis, as callers used to, to show that doing so no longer starts threads
+    private void runAnalyses(int first, int count) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        for (int start = first; start < first + count; start += WINDOW) {
+            CountDownLatch done = new CountDownLatch(WINDOW);
+            for (int i = start; i < start + WINDOW; i++) {
+                Message message = new Message(0, "thread check " + runId + " " + i,
+                        System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550100");
+                // Negative ids never match rows in the real messages table
+                message.setId(-1 - i);
+                SmsAnalyzerService service = new SmsAnalyzerService(context, repository, server.getBaseUrl());
+                service.analyzeMessage(message, new SmsAnalyzerService.AnalysisCallback() {
+                    @Override
+                    public void onResult(boolean isSpam, String resultMessage) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        failures.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue("Analyses timed out", done.await(60, TimeUnit.SECONDS));
+        }
+        assertEquals(0, failures.get());
+    }
+}
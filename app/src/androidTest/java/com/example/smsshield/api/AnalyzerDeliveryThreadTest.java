@@ -0,0 +1,139 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that handling backend responses, successful or not, never reaches
+ * Room from the main looper.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalyzerDeliveryThreadTest {
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private RecordingRepository repository;
+    private SmsAnalyzerService service;
+    private final long runId = System.nanoTime();
+
+    /**
+     * Repository that records which thread each database call comes from.
+     */
+    private static final class RecordingRepository extends MessageRepository {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger mainThreadCalls = new AtomicInteger();
+
+        RecordingRepository(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void updateMessageStatus(long messageId, String status) {
+            record();
+            super.updateMessageStatus(messageId, status);
+        }
+
+        private void record() {
+            calls.incrementAndGet();
+            if (Looper.getMainLooper().isCurrentThread()) {
+                mainThreadCalls.incrementAndGet();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        // Messages marked "fail" get a server error, exercising the local fallback path
+        server = StubAnalyzerServer.start(request -> request.getBodyAsString().contains("fail")
+                ? StubAnalyzerServer.StubResponse.json(500, "{}")
+                : verdicts.handle(request));
+        repository = new RecordingRepository(context);
+        service = new SmsAnalyzerService(context, repository, server.getBaseUrl());
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void responsesAreHandledOffTheMainLooper() throws Exception {
+        int count = 20;
+        CountDownLatch done = new CountDownLatch(count + 1);
+        AtomicInteger mainThreadCallbacks = new AtomicInteger();
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message single = createMessage(i, i % 2 == 0 ? "fail" : "ok");
+            service.analyzeMessage(single, new SmsAnalyzerService.AnalysisCallback() {
+                @Override
+                public void onResult(boolean isSpam, String resultMessage) {
+                    if (Looper.getMainLooper().isCurrentThread()) {
+                        mainThreadCallbacks.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(String error) {
+                    done.countDown();
+                }
+            });
+            batch.add(createMessage(count + i, "batch"));
+        }
+        service.analyzeMessages(batch, new SmsAnalyzerService.BatchCallback() {
+            @Override
+            public void onResult(Message message, boolean isSpam, String resultMessage) {
+            }
+
+            @Override
+            public void onError(Message message, String error) {
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        assertTrue("Analyses timed out", done.await(60, TimeUnit.SECONDS));
+        assertTrue("Repository was not used", repository.calls.get() >= 2 * count);
+        assertEquals(0, repository.mainThreadCalls.get());
+        assertEquals(0, mainThreadCallbacks.get());
+    }
+
+    private Message createMessage(int index, String tag) {
+        Message message = new Message(0, "delivery " + tag + " " + runId + " " + index,
+                System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550101");
+        // Negative ids never match rows in the real messages table
+        message.setId(-1 - index);
+        return message;
+    }
+}
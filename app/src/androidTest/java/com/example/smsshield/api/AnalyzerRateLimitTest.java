@@ -0,0 +1,179 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a burst of analyses against a backend enforcing a quota backs
+ * off on 429 and {@code Retry-After} and still gets a backend verdict for
+ * every message, instead of falling back to local analysis, and that a live
+ * message is not held up by the rate limit behind bulk work.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalyzerRateLimitTest {
+
+    private static final double RATE_PER_SECOND = 4;
+    private static final int RATE_BURST = 8;
+    // Stricter than the client's burst, looser than its sustained rate
+    private static final int QUOTA_PER_SECOND = 5;
+    private static final int ANALYSES = 20;
+    // Only requests sent before the first 429 arrived should be refused
+    private static final int MAX_THROTTLED = RATE_BURST;
+    private static final int BACKFILL_ANALYSES = 40;
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private MessageRepository repository;
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        server = StubAnalyzerServer.start(quota(QUOTA_PER_SECOND));
+        repository = new MessageRepository(context);
+        // Start with a full token bucket, whatever earlier tests spent
+        AnalyzerClient.shutdown();
+        AnalyzerClient.setRateLimit(RATE_PER_SECOND, RATE_BURST);
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AnalyzerClient.setRateLimit(AnalyzerClient.DEFAULT_RATE_PER_SECOND, AnalyzerClient.DEFAULT_RATE_BURST);
+        AnalyzerClient.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void burstBacksOffAndGetsBackendVerdicts() throws Exception {
+        SmsAnalyzerService service = new SmsAnalyzerService(context, repository, server.getBaseUrl());
+        Queue<String> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(ANALYSES);
+        for (int i = 0; i < ANALYSES; i++) {
+            Message message = new Message(0, "rate limit check " + runId + " " + i,
+                    System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550104");
+            // Negative ids never match rows in the real messages table
+            message.setId(-1 - i);
+            service.analyzeMessage(message, AnalysisPriority.INTERACTIVE, new SmsAnalyzerService.AnalysisCallback() {
+                @Override
+                public void onResult(boolean isSpam, String resultMessage) {
+                    results.add(resultMessage);
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(String error) {
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue("Analyses timed out", done.await(30, TimeUnit.SECONDS));
+
+        assertEquals(0, failures.get());
+        for (String result : results) {
+            // A local fallback would have its own wording
+            assertEquals("Stub: safe", result);
+        }
+        assertTrue("The quota was never hit", throttled.get() > 0);
+        assertTrue("Refused " + throttled.get() + " requests", throttled.get() <= MAX_THROTTLED);
+        // Every analysis was accepted once, plus at most one hedged duplicate
+        int accepted = server.getRequests("/analyze").size() - throttled.get();
+        assertTrue("Accepted " + accepted + " requests", accepted >= ANALYSES && accepted <= 2 * ANALYSES);
+    }
+
+    @Test
+    public void liveMessageIsNotRateLimitedBehindBackfill() throws Exception {
+        server.setHandler(StubAnalyzerServer.verdicts());
+        SmsAnalyzerService service = new SmsAnalyzerService(context, repository, server.getBaseUrl());
+        SmsAnalyzerService.AnalysisCallback ignored = new SmsAnalyzerService.AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String resultMessage) {
+            }
+
+            @Override
+            public void onError(String error) {
+            }
+        };
+        // Several seconds of tokens' worth of bulk work, well past the LIVE budget
+        for (int i = 0; i < BACKFILL_ANALYSES; i++) {
+            Message message = new Message(0, "backfill " + runId + " " + i,
+                    System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550105");
+            message.setId(-100 - i);
+            service.analyzeMessage(message, AnalysisPriority.BACKFILL, ignored);
+        }
+
+        Message live = new Message(0, "live " + runId, System.currentTimeMillis(), true,
+                Message.STATUS_UNCHECKED, "+15550106");
+        live.setId(-99);
+        Queue<String> results = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(1);
+        service.analyzeMessage(live, AnalysisPriority.LIVE, new SmsAnalyzerService.AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String resultMessage) {
+                results.add(resultMessage);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                done.countDown();
+            }
+        });
+        assertTrue("Live analysis timed out", done.await(5, TimeUnit.SECONDS));
+
+        // A rate-limited live message would get a local fallback instead
+        assertEquals("Stub: safe", results.peek());
+    }
+
+    // Allows quotaPerSecond requests in each one-second window and refuses the rest with 429
+    private StubAnalyzerServer.Handler quota(int quotaPerSecond) {
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        Object lock = new Object();
+        long[] windowStart = {SystemClock.elapsedRealtime()};
+        int[] used = {0};
+        return request -> {
+            synchronized (lock) {
+                long now = SystemClock.elapsedRealtime();
+                if (now - windowStart[0] >= 1000) {
+                    windowStart[0] = now;
+                    used[0] = 0;
+                }
+                if (used[0] >= quotaPerSecond) {
+                    throttled.incrementAndGet();
+                    return StubAnalyzerServer.StubResponse.json(429, "{\"error\":\"quota exceeded\"}")
+                            .withHeader("Retry-After", "1");
+                }
+                used[0]++;
+            }
+            return verdicts.handle(request);
+        };
+    }
+}
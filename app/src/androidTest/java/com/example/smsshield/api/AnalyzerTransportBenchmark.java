@@ -0,0 +1,162 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.example.smsshield.database.entities.Message;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the {@link AnalyzerTransport} implementations against a loopback
+ * stub: requests per second, bytes on the wire per request and connections
+ * opened, for single and batched analyses. Results are logged under
+ * {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalyzerTransportBenchmark {
+    private static final String TAG = "TransportBenchmark";
+
+    private static final int CONCURRENCY = 8;
+    private static final int WARM_UP_REQUESTS = 50;
+    private static final int SINGLE_REQUESTS = 1000;
+    private static final int BATCH_REQUESTS = 100;
+    private static final int BATCH_SIZE = 50;
+
+    private interface TransportFactory {
+        AnalyzerTransport create(Executor deliveryExecutor, AnalyzerTransport.FinishedListener listener);
+    }
+
+    private static final class Result {
+        final double requestsPerSecond;
+        final long bytesSentPerRequest;
+        final long bytesReceivedPerRequest;
+        final int connections;
+
+        Result(double requestsPerSecond, long bytesSentPerRequest, long bytesReceivedPerRequest,
+               int connections) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.bytesSentPerRequest = bytesSentPerRequest;
+            this.bytesReceivedPerRequest = bytesReceivedPerRequest;
+            this.connections = connections;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%8.1f req/s %7d B up %7d B down %3d connections",
+                    requestsPerSecond, bytesSentPerRequest, bytesReceivedPerRequest, connections);
+        }
+    }
+
+    @Test
+    public void compareTransports() throws Exception {
+        Map<String, TransportFactory> transports = new LinkedHashMap<>();
+        transports.put("volley", (executor, listener) -> new VolleyTransport(CONCURRENCY, executor, listener));
+        transports.put("okhttp", (executor, listener) -> new OkHttpTransport(CONCURRENCY, executor, listener, false));
+        transports.put("okhttp+gzip", (executor, listener) -> new OkHttpTransport(CONCURRENCY, executor, listener, true));
+
+        byte[] singleBody = AnalysisRequest.singleBody(createMessage(0));
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(createMessage(i));
+        }
+        byte[] batchBody = AnalysisRequest.batchBody(batch);
+
+        Map<String, Result> singles = new LinkedHashMap<>();
+        Map<String, Result> batches = new LinkedHashMap<>();
+        for (Map.Entry<String, TransportFactory> transport : transports.entrySet()) {
+            singles.put(transport.getKey(), run(transport.getValue(), "/analyze", singleBody, false, SINGLE_REQUESTS));
+            batches.put(transport.getKey(), run(transport.getValue(), "/analyze/batch", batchBody, true, BATCH_REQUESTS));
+        }
+
+        for (String name : transports.keySet()) {
+            Log.i(TAG, String.format(Locale.ROOT, "%-12s single %s", name, singles.get(name)));
+            Log.i(TAG, String.format(Locale.ROOT, "%-12s batch  %s", name, batches.get(name)));
+        }
+        // Persistent connections: never more than one per concurrent request
+        assertTrue(singles.get("okhttp").connections <= CONCURRENCY);
+        assertTrue(batches.get("okhttp").connections <= CONCURRENCY);
+        // Batches of similar messages compress well
+        assertTrue(batches.get("okhttp+gzip").bytesSentPerRequest < batches.get("okhttp").bytesSentPerRequest / 2);
+    }
+
+    private Result run(TransportFactory factory, String path, byte[] body, boolean batch, int count)
+            throws Exception {
+        ExecutorService deliveryExecutor = Executors.newFixedThreadPool(2);
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        AnalyzerTransport transport = factory.create(deliveryExecutor, request -> permits.release());
+        try (StubAnalyzerServer server = StubAnalyzerServer.start()) {
+            String url = server.getBaseUrl() + path;
+            send(transport, permits, url, body, batch, WARM_UP_REQUESTS);
+
+            long received = server.getBytesReceived();
+            long sent = server.getBytesSent();
+            long start = SystemClock.elapsedRealtime();
+            send(transport, permits, url, body, batch, count);
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+            // The server receives what the client sends up, and the other way round
+            return new Result(count * 1000.0 / elapsed,
+                    (server.getBytesReceived() - received) / count,
+                    (server.getBytesSent() - sent) / count,
+                    server.getConnectionCount());
+        } finally {
+            transport.shutdown();
+            deliveryExecutor.shutdown();
+        }
+    }
+
+    private void send(AnalyzerTransport transport, Semaphore permits, String url, byte[] body,
+                      boolean batch, int count) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            permits.acquire();
+            AnalysisRequest<?> request = batch
+                    ? new AnalysisRequest<>(url, body, AnalysisResponseParser::readBatch,
+                            results -> done.countDown(),
+                            error -> {
+                                failures.incrementAndGet();
+                                done.countDown();
+                            })
+                    : new AnalysisRequest<>(url, body, AnalysisResponseParser::readSingle,
+                            result -> done.countDown(),
+                            error -> {
+                                failures.incrementAndGet();
+                                done.countDown();
+                            });
+            request.setRetryPolicy(new DefaultRetryPolicy(10000, 0, 1f));
+            transport.send(request);
+        }
+        assertTrue("Requests timed out", done.await(120, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+    }
+
+    private static Message createMessage(int index) {
+        Message message = new Message(0, "Your parcel " + index + " is waiting at the depot, "
+                + "confirm your delivery details within 24 hours at the link below to avoid return",
+                System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550102");
+        message.setId(-1 - index);
+        return message;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link SmsAnalyzerService#analyzeMessages} groups messages into
+ * bounded batch requests and maps the results back by message id.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsAnalyzerServiceBatchTest {
+
+    // LIVE budget plus scheduling slack
+    private static final long LIVE_ANSWER_MS = 2500;
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private SmsAnalyzerService service;
+    // Keeps message text unique, so spam fingerprints kept by earlier tests in the process never match
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        server = StubAnalyzerServer.start();
+        service = new SmsAnalyzerService(context, new MessageRepository(context), server.getBaseUrl());
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void groupsMessagesIntoBatchRequests() throws Exception {
+        List<Message> messages = createMessages(120, 0);
+
+        Map<Long, Boolean> results = analyze(messages);
+
+        assertEquals(120, results.size());
+        // 50 + 50 + 20
+        assertEquals(3, server.getRequests("/analyze/batch").size());
+        assertEquals(0, server.getRequests("/analyze").size());
+        for (Message message : messages) {
+            assertEquals(message.getContent().endsWith("spam"), results.get(message.getId()));
+        }
+    }
+
+    @Test
+    public void splitsBatchesBySize() throws Exception {
+        // Each message is big enough that two would exceed the batch size limit
+        List<Message> messages = createMessages(4, 20000);
+
+        Map<Long, Boolean> results = analyze(messages);
+
+        assertEquals(4, results.size());
+        assertEquals(4, server.getRequests("/analyze/batch").size());
+    }
+
+    @Test
+    public void fallsBackToSingleRequestsWithoutBatchEndpoint() throws Exception {
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        server.setHandler(request -> "/analyze/batch".equals(request.path)
+                ? StubAnalyzerServer.StubResponse.json(404, "{}")
+                : verdicts.handle(request));
+        List<Message> messages = createMessages(5, 0);
+
+        Map<Long, Boolean> results = analyze(messages);
+
+        assertEquals(5, results.size());
+        assertEquals(1, server.getRequests("/analyze/batch").size());
+        assertEquals(5, server.getRequests("/analyze").size());
+
+        // The next import goes straight to single requests instead of asking again
+        results = analyze(createMessages(5, 5, 0));
+
+        assertEquals(5, results.size());
+        assertEquals(1, server.getRequests("/analyze/batch").size());
+        assertEquals(10, server.getRequests("/analyze").size());
+    }
+
+    @Test
+    public void liveMessageDoesNotWaitForAnImport() throws Exception {
+        CountDownLatch imported = new CountDownLatch(1);
+        service.analyzeMessages(createMessages(1000, 0), AnalysisPriority.BACKFILL,
+                new SmsAnalyzerService.BatchCallback() {
+                    @Override
+                    public void onResult(Message message, boolean isSpam, String resultMessage) {
+                    }
+
+                    @Override
+                    public void onError(Message message, String error) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        imported.countDown();
+                    }
+                });
+
+        Message live = new Message(0, "live " + runId, System.currentTimeMillis(), true,
+                Message.STATUS_UNCHECKED, "+15550199");
+        live.setId(-999);
+        CountDownLatch answered = new CountDownLatch(1);
+        long startedAt = SystemClock.elapsedRealtime();
+        service.analyzeMessage(live, AnalysisPriority.LIVE, new SmsAnalyzerService.AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String resultMessage) {
+                answered.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                answered.countDown();
+            }
+        });
+
+        assertTrue("Live message not answered", answered.await(LIVE_ANSWER_MS, TimeUnit.MILLISECONDS));
+        assertTrue(SystemClock.elapsedRealtime() - startedAt < LIVE_ANSWER_MS);
+        assertTrue("Import did not complete", imported.await(60, TimeUnit.SECONDS));
+    }
+
+    private Map<Long, Boolean> analyze(List<Message> messages) throws InterruptedException {
+        Map<Long, Boolean> results = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(1);
+        service.analyzeMessages(messages, new SmsAnalyzerService.BatchCallback() {
+            @Override
+            public void onResult(Message message, boolean isSpam, String resultMessage) {
+                results.put(message.getId(), isSpam);
+            }
+
+            @Override
+            public void onError(Message message, String error) {
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        assertTrue("Batch did not complete", done.await(30, TimeUnit.SECONDS));
+        return results;
+    }
+
+    // Short texts, so they are too small to fingerprint as near-duplicates of each other
+    private List<Message> createMessages(int count, int padding) {
+        return createMessages(0, count, padding);
+    }
+
+    private List<Message> createMessages(int first, int count, int padding) {
+        StringBuilder pad = new StringBuilder();
+        for (int i = 0; i < padding; i++) {
+            pad.append('x');
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            String content = "check " + runId + pad + " " + i + (i % 3 == 0 ? " spam" : "");
+            Message message = new Message(0, content, System.currentTimeMillis(), true,
+                    Message.STATUS_UNCHECKED, "+15550000" + i);
+            // Negative ids never match rows in the real messages table
+            message.setId(-1000 - i);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.volley.VolleyError;
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a caller gets its answer within its priority's budget when the
+ * backend is slow: by a local fallback, a hedged request, or a flight of its
+ * own rather than a slower one it would otherwise join.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsAnalyzerServiceDeadlineTest {
+
+    // LIVE budget plus scheduling slack
+    private static final long LIVE_ANSWER_MS = 2500;
+    // Longer than the LIVE budget, so waiting for it would miss the deadline
+    private static final long SLOW_MS = 5000;
+    // Requests the hedge needs to have seen before it has a latency percentile
+    private static final int PRIMING_REQUESTS = 24;
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private SmsAnalyzerService service;
+    // Keeps message text unique, so spam fingerprints kept by earlier tests in the process never match
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        server = StubAnalyzerServer.start();
+        service = new SmsAnalyzerService(context, new MessageRepository(context), server.getBaseUrl());
+        AnalyzerClient.setRateLimit(1000, 1000);
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AnalyzerClient.setRateLimit(AnalyzerClient.DEFAULT_RATE_PER_SECOND, AnalyzerClient.DEFAULT_RATE_BURST);
+        server.close();
+    }
+
+    @Test
+    public void liveMessageGetsAVerdictWithinTwoSeconds() throws Exception {
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        server.setHandler(request -> {
+            Thread.sleep(SLOW_MS);
+            return verdicts.handle(request);
+        });
+
+        long startedAt = SystemClock.elapsedRealtime();
+        String result = analyze(message(-2001, "slow backend " + runId), AnalysisPriority.LIVE);
+
+        assertNotNull("No verdict within the LIVE budget", result);
+        assertTrue(SystemClock.elapsedRealtime() - startedAt < LIVE_ANSWER_MS);
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        // Fill the latency window with fast answers, so the hedge fires after its minimum delay
+        for (int i = 0; i < PRIMING_REQUESTS; i++) {
+            analyze(message(-2100 - i, "priming " + runId + " " + i), AnalysisPriority.INTERACTIVE);
+        }
+        String text = "hedged " + runId;
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        AtomicInteger attempts = new AtomicInteger();
+        server.setHandler(request -> {
+            if (request.getBodyAsString().contains(text) && attempts.incrementAndGet() == 1) {
+                Thread.sleep(SLOW_MS);
+            }
+            return verdicts.handle(request);
+        });
+
+        long startedAt = SystemClock.elapsedRealtime();
+        String result = analyze(message(-2002, text), AnalysisPriority.INTERACTIVE);
+
+        // Answered by the hedge, not by the slow primary or a local fallback
+        assertEquals("Stub: safe", result);
+        assertTrue(SystemClock.elapsedRealtime() - startedAt < SLOW_MS);
+        // The primary's late answer must not be followed by another attempt
+        Thread.sleep(SLOW_MS);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void liveMessageDoesNotWaitForABackfillFlight() throws Exception {
+        StubAnalyzerServer.Handler verdicts = StubAnalyzerServer.verdicts();
+        server.setHandler(request -> {
+            if ("/analyze/batch".equals(request.path)) {
+                Thread.sleep(SLOW_MS);
+            }
+            return verdicts.handle(request);
+        });
+        String text = "shared body " + runId;
+        service.analyzeMessages(Collections.singletonList(message(-2003, text)), AnalysisPriority.BACKFILL,
+                new SmsAnalyzerService.BatchCallback() {
+                    @Override
+                    public void onResult(Message message, boolean isSpam, String resultMessage) {
+                    }
+
+                    @Override
+                    public void onError(Message message, String error) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                });
+        long waitUntil = SystemClock.elapsedRealtime() + SLOW_MS;
+        while (server.getRequests("/analyze/batch").isEmpty() && SystemClock.elapsedRealtime() < waitUntil) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, server.getRequests("/analyze/batch").size());
+
+        // Same body in another row: it would otherwise join the backfill flight
+        long startedAt = SystemClock.elapsedRealtime();
+        String result = analyze(message(-2004, text), AnalysisPriority.LIVE);
+
+        assertEquals("Stub: safe", result);
+        assertTrue(SystemClock.elapsedRealtime() - startedAt < LIVE_ANSWER_MS);
+        assertEquals(1, server.getRequests("/analyze").size());
+    }
+
+    @Test
+    public void expiredRequestIsNotSent() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<VolleyError> failure = new AtomicReference<>();
+        AnalysisRequest<AnalysisResult> request = new AnalysisRequest<>(
+                server.getBaseUrl() + "/analyze",
+                AnalysisRequest.singleBody(message(-2005, "expired " + runId)),
+                AnalysisResponseParser::readSingle,
+                result -> done.countDown(),
+                error -> {
+                    failure.set(error);
+                    done.countDown();
+                });
+        // Its whole budget went by while it queued
+        request.setRetryPolicy(new DeadlineRetryPolicy(SystemClock.elapsedRealtime() - 1, 15000, 2, 1.5f));
+
+        AnalyzerClient.getInstance().add(request, AnalysisPriority.BACKFILL);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof AnalysisRequest.ExpiredError);
+        assertFalse(AnalysisRequest.isBackendFailure(failure.get()));
+        assertEquals(0, server.getRequestCount());
+    }
+
+    // Returns the verdict text, or null if no verdict came within the LIVE budget
+    private String analyze(Message message, AnalysisPriority priority) throws InterruptedException {
+        AtomicReference<String> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        service.analyzeMessage(message, priority, new SmsAnalyzerService.AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String resultMessage) {
+                result.set(resultMessage);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                done.countDown();
+            }
+        });
+        done.await(priority == AnalysisPriority.LIVE ? LIVE_ANSWER_MS : 15000, TimeUnit.MILLISECONDS);
+        return result.get();
+    }
+
+    private static Message message(long id, String content) {
+        Message message = new Message(0, content, System.currentTimeMillis(), true,
+                Message.STATUS_UNCHECKED, "+15550200");
+        // Negative ids never match rows in the real messages table
+        message.setId(id);
+        return message;
+    }
+}
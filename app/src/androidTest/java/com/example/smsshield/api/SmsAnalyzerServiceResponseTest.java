@@ -0,0 +1,103 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how backend answers that carry no verdict are handled: reported as
+ * a local fallback and never cached, so the next copy of the text asks again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsAnalyzerServiceResponseTest {
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private SmsAnalyzerService service;
+    // Keeps message text unique, so spam fingerprints kept by earlier tests in the process never match
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        // Answers without an is_spam field
+        server = StubAnalyzerServer.start(request ->
+                StubAnalyzerServer.StubResponse.json(200, "{\"message\":\"No opinion\"}"));
+        service = new SmsAnalyzerService(context, new MessageRepository(context), server.getBaseUrl());
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void responseWithoutVerdictIsNotCached() throws Exception {
+        Message message = message(-3001, "no verdict " + runId);
+
+        assertTrue("Expected the local fallback", analyzeExpectingFallback(message));
+        assertTrue("Expected the local fallback", analyzeExpectingFallback(message(-3002, message.getContent())));
+
+        // The second copy was not answered from the cache
+        assertEquals(2, server.getRequests("/analyze").size());
+        long key = VerdictCache.keyFor(message.getContent(), message.getPhoneNumber());
+        assertNull(app.getDatabase().verdictCacheDao().getVerdict(key, VerdictCache.MODEL_VERSION,
+                System.currentTimeMillis()));
+    }
+
+    // Returns true if the analysis ended in a local fallback
+    private boolean analyzeExpectingFallback(Message message) throws InterruptedException {
+        AtomicBoolean fellBack = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        service.analyzeMessage(message, AnalysisPriority.INTERACTIVE, new SmsAnalyzerService.AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String resultMessage) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFallback(boolean isSpam, String resultMessage) {
+                fellBack.set(true);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                done.countDown();
+            }
+        });
+        assertTrue("Analysis timed out", done.await(15, TimeUnit.SECONDS));
+        return fellBack.get();
+    }
+
+    private static Message message(long id, String content) {
+        Message message = new Message(0, content, System.currentTimeMillis(), true,
+                Message.STATUS_UNCHECKED, "+15550300");
+        // Negative ids never match rows in the real messages table
+        message.setId(id);
+        return message;
+    }
+}
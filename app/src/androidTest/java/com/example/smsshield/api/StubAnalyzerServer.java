@@ -0,0 +1,394 @@
+package com.example.smsshield.api;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that stands in for the
+ * analysis backend in instrumented tests.
+ *
+ * Every request is recorded and answered by a {@link Handler}. Connections
+ * are kept alive, so the client's connection reuse behaves as it would
+ * against the real backend. Gzip-encoded request bodies are decoded before
+ * they are recorded, and the bytes crossing the socket are counted.
+ */
+public final class StubAnalyzerServer implements Closeable {
+
+    /**
+     * Produces the response for one request. Runs on a server thread.
+     */
+    public interface Handler {
+        StubResponse handle(RecordedRequest request) throws Exception;
+    }
+
+    /**
+     * A request as received by the server.
+     */
+    public static final class RecordedRequest {
+        public final String method;
+        public final String path;
+        // Header names are lowercased
+        public final Map<String, String> headers;
+        // Decoded if the request was sent with Content-Encoding: gzip
+        public final byte[] body;
+
+        RecordedRequest(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A response to send back, built with {@link #json} and {@link #withHeader}.
+     */
+    public static final class StubResponse {
+        final int status;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        private StubResponse(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public static StubResponse json(int status, String body) {
+            StubResponse response = new StubResponse(status, body.getBytes(StandardCharsets.UTF_8));
+            response.headers.put("Content-Type", "application/json; charset=utf-8");
+            return response;
+        }
+
+        public static StubResponse empty(int status) {
+            return new StubResponse(status, new byte[0]);
+        }
+
+        public StubResponse withHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+    private final List<RecordedRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile Handler handler;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private StubAnalyzerServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        connectionExecutor.execute(this::acceptLoop);
+    }
+
+    /**
+     * Starts a server on a free loopback port.
+     */
+    public static StubAnalyzerServer start(Handler handler) throws IOException {
+        return new StubAnalyzerServer(handler);
+    }
+
+    /**
+     * Starts a server that answers both analysis endpoints with {@link #verdicts()}.
+     */
+    public static StubAnalyzerServer start() throws IOException {
+        return new StubAnalyzerServer(verdicts());
+    }
+
+    /**
+     * Base URL to pass to {@link SmsAnalyzerService}, without a trailing slash.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public List<RecordedRequest> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * Returns the recorded requests made to {@code path}.
+     */
+    public List<RecordedRequest> getRequests(String path) {
+        List<RecordedRequest> matching = new ArrayList<>();
+        for (RecordedRequest request : getRequests()) {
+            if (request.path.equals(path)) {
+                matching.add(request);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Number of connections accepted so far.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Bytes read from clients so far, headers included.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Bytes written to clients so far, headers included.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connectionExecutor.shutdownNow();
+    }
+
+    /**
+     * Handler that calls a message spam when its text contains "spam". Single
+     * requests get one verdict object; batch requests get an array of verdicts
+     * carrying the ids they were sent with.
+     */
+    public static Handler verdicts() {
+        return request -> {
+            if ("/analyze".equals(request.path)) {
+                JSONObject item = new JSONObject(request.getBodyAsString());
+                return StubResponse.json(200, verdictFor(item).toString());
+            }
+            if ("/analyze/batch".equals(request.path)) {
+                JSONArray items = new JSONArray(request.getBodyAsString());
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    results.put(verdictFor(item).put("id", item.getLong("id")));
+                }
+                return StubResponse.json(200, results.toString());
+            }
+            return StubResponse.json(404, "{\"error\":\"not found\"}");
+        };
+    }
+
+    private static JSONObject verdictFor(JSONObject item) throws JSONException {
+        boolean isSpam = item.optString("message").toLowerCase(Locale.ROOT).contains("spam");
+        return new JSONObject()
+                .put("is_spam", isSpam)
+                .put("message", isSpam ? "Stub: spam" : "Stub: safe");
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // Closed by close()
+                return;
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            InputStream in = new BufferedInputStream(new CountingInputStream(connection.getInputStream()));
+            OutputStream out = new CountingOutputStream(connection.getOutputStream());
+            while (true) {
+                RecordedRequest request = readRequest(in);
+                if (request == null) {
+                    return;
+                }
+                requests.add(request);
+                StubResponse response;
+                try {
+                    response = handler.handle(request);
+                } catch (Exception e) {
+                    response = StubResponse.json(500, JSONObject.quote(String.valueOf(e)));
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(request.headers.get("connection"))) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away; nothing to clean up beyond the socket
+        }
+    }
+
+    private static RecordedRequest readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("Malformed request line: " + requestLine);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        String contentLength = headers.get("content-length");
+        int length = contentLength != null ? Integer.parseInt(contentLength) : 0;
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(body, read, length - read);
+            if (count < 0) {
+                throw new IOException("Request body truncated");
+            }
+            read += count;
+        }
+        if ("gzip".equalsIgnoreCase(headers.get("content-encoding"))) {
+            body = gunzip(body);
+        }
+        return new RecordedRequest(parts[0], parts[1], headers, body);
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("ISO-8859-1") : null;
+    }
+
+    private static void writeResponse(OutputStream out, StubResponse response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(' ')
+                .append(reasonPhrase(response.status)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(response.body);
+        out.flush();
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                bytesReceived.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                bytesReceived.addAndGet(count);
+            }
+            return count;
+        }
+    }
+
+    private final class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesSent.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            bytesSent.addAndGet(length);
+        }
+    }
+}
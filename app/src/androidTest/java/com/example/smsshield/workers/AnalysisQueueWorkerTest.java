@@ -0,0 +1,144 @@
+package com.example.smsshield.workers;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.annotation.NonNull;
+import androidx.work.ListenableWorker;
+import androidx.work.WorkerFactory;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.TestWorkerBuilder;
+
+import com.example.smsshield.IsolatedAppRule;
+import com.example.smsshield.api.AnalysisPriority;
+import com.example.smsshield.api.AnalysisQueue;
+import com.example.smsshield.api.SmsAnalyzerService;
+import com.example.smsshield.api.StubAnalyzerServer;
+import com.example.smsshield.database.SmsShieldDatabase;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.database.entities.QueuedAnalysis;
+import com.example.smsshield.database.entities.User;
+import com.example.smsshield.repository.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link AnalysisQueueWorker} drains queued messages against a
+ * stub backend in batch requests, saving a verdict for each, and leaves
+ * messages queued when the backend only lets them get a local verdict.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnalysisQueueWorkerTest {
+
+    @Rule
+    public final IsolatedAppRule app = new IsolatedAppRule();
+
+    private Context context;
+    private StubAnalyzerServer server;
+    private SmsShieldDatabase database;
+    private ExecutorService executor;
+    private long userId;
+    // Keeps message text unique, so spam fingerprints kept by earlier tests in the process never match
+    private final long runId = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        context = app.getContext();
+        server = StubAnalyzerServer.start();
+        database = app.getDatabase();
+        executor = Executors.newSingleThreadExecutor();
+        // Queued rows need real messages, which need a contact
+        userId = database.userDao().insert(new User("Queue test " + runId, "+1555" + runId % 10000000,
+                User.STATUS_KNOWN));
+        // Treat every local verdict as uncertain so all messages reach the backend
+        SmsAnalyzerService.setConfidenceBand(context, 0f, 1f);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void drainsQueuedMessagesInBatches() throws Exception {
+        int count = 120;
+        List<Long> messageIds = enqueueMessages(count);
+
+        ListenableWorker.Result result = createWorker().doWork();
+
+        assertTrue(result instanceof ListenableWorker.Result.Success);
+        assertEquals(count, result.getOutputData().getInt(AnalysisQueueWorker.KEY_PROCESSED, 0));
+        assertEquals(0, result.getOutputData().getInt(AnalysisQueueWorker.KEY_FAILED, -1));
+        for (long messageId : messageIds) {
+            assertEquals(Message.STATUS_SAFE, database.messageDao().getMessageById(messageId).getStatus());
+        }
+        // 50 + 50 + 20
+        assertEquals(3, server.getRequests("/analyze/batch").size());
+    }
+
+    @Test
+    public void keepsMessagesQueuedWhenTheBackendFails() throws Exception {
+        server.setHandler(request -> StubAnalyzerServer.StubResponse.json(500, "{\"error\":\"unavailable\"}"));
+        int count = 10;
+        List<Long> messageIds = enqueueMessages(count);
+        long startedAt = System.currentTimeMillis();
+
+        ListenableWorker.Result result = createWorker().doWork();
+
+        assertTrue(server.getRequests("/analyze/batch").size() >= 1);
+        if (result instanceof ListenableWorker.Result.Success) {
+            assertTrue(result.getOutputData().getInt(AnalysisQueueWorker.KEY_FAILED, 0) >= count);
+        }
+        // Local fallback verdicts do not take the messages out of the queue
+        List<QueuedAnalysis> rows = database.analysisQueueDao().getByMessageIds(messageIds);
+        assertEquals(count, rows.size());
+        for (QueuedAnalysis row : rows) {
+            assertTrue(row.getNextAttemptAt() > startedAt);
+            assertEquals(0, row.getLeaseUntil());
+        }
+    }
+
+    private List<Long> enqueueMessages(int count) throws InterruptedException {
+        List<Long> messageIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = new Message(userId, "queued " + runId + " " + i,
+                    System.currentTimeMillis(), true, Message.STATUS_UNCHECKED, "+15550103");
+            messageIds.add(database.messageDao().insert(message));
+        }
+        CountDownLatch queued = new CountDownLatch(1);
+        AnalysisQueue.getInstance(context).enqueue(messageIds, AnalysisPriority.BACKFILL, queued::countDown);
+        assertTrue("Enqueue timed out", queued.await(10, TimeUnit.SECONDS));
+        return messageIds;
+    }
+
+    // A worker that analyzes against the stub rather than the shared service's backend
+    private AnalysisQueueWorker createWorker() {
+        SmsAnalyzerService service = new SmsAnalyzerService(context, new MessageRepository(context),
+                server.getBaseUrl());
+        return TestWorkerBuilder.from(context, AnalysisQueueWorker.class, executor)
+                .setWorkerFactory(new WorkerFactory() {
+                    @Override
+                    public ListenableWorker createWorker(@NonNull Context appContext,
+                                                         @NonNull String workerClassName,
+                                                         @NonNull WorkerParameters workerParameters) {
+                        return new AnalysisQueueWorker(appContext, workerParameters, service);
+                    }
+                })
+                .build();
+    }
+}
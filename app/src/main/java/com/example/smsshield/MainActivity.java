@@ -43,10 +43,8 @@ import com.google.android.material.navigation.NavigationView;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class MainActivity extends AppCompatActivity 
         implements NavigationView.OnNavigationItemSelectedListener,
@@ -85,6 +83,9 @@ public class MainActivity extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         
+        // Keep the offline analysis queue draining in the background; an existing schedule is kept
+        com.example.smsshield.workers.AnalysisQueueWorker.schedule(this);
+        
         // Set up toolbar
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -519,6 +520,7 @@ public class MainActivity extends AppCompatActivity
                 refreshMessages();
             } else if (selectedOption.equals(getString(R.string.message_mark_spam))) {
                 messageViewModel.updateMessageStatus(message.getId(), Message.STATUS_SPAM);
+                com.example.smsshield.api.SmsAnalyzerService.getInstance(this).reportSpam(message);
                 Toast.makeText(this, "Marked as spam", Toast.LENGTH_SHORT).show();
                 
                 // Refresh the message list
@@ -784,50 +786,38 @@ public class MainActivity extends AppCompatActivity
     }
     
     private void analyzeMessages(List<Message> messages) {
-        // Create analyzer service
+        // Get the shared analyzer service
         com.example.smsshield.api.SmsAnalyzerService analyzerService = 
-                new com.example.smsshield.api.SmsAnalyzerService(this, new com.example.smsshield.repository.MessageRepository(this));
+                com.example.smsshield.api.SmsAnalyzerService.getInstance(this);
         
         // Track how many messages have been analyzed
         final int[] analyzedCount = {0};
         final int totalCount = messages.size();
         
-        // Analyze each message
-        for (Message message : messages) {
-            analyzerService.analyzeMessage(message, new com.example.smsshield.api.SmsAnalyzerService.AnalysisCallback() {
-                @Override
-                public void onResult(boolean isSpam, String resultMessage) {
-                    analyzedCount[0]++;
-                    
-                    // Update message status in the UI thread
-                    runOnUiThread(() -> {
-                        // Update progress
-                        Toast.makeText(MainActivity.this, 
-                                "Analyzed " + analyzedCount[0] + " of " + totalCount + " messages", 
-                                Toast.LENGTH_SHORT).show();
-                        
-                        // If all messages have been analyzed, refresh the contacts
-                        if (analyzedCount[0] >= totalCount) {
-                            refreshContactsPage();
-                        }
-                    });
-                }
-                
-                @Override
-                public void onError(String error) {
+        // Analyze all messages in batched requests
+        analyzerService.analyzeMessages(messages, new com.example.smsshield.api.SmsAnalyzerService.BatchCallback() {
+            @Override
+            public void onResult(Message message, boolean isSpam, String resultMessage) {
+                // Update progress in the UI thread
+                runOnUiThread(() -> {
                     analyzedCount[0]++;
-                    Log.e("MainActivity", "Error analyzing message: " + error);
-                    
-                    // Update UI on main thread
-                    runOnUiThread(() -> {
-                        // If all messages have been analyzed (including failures), refresh the contacts
-                        if (analyzedCount[0] >= totalCount) {
-                            refreshContactsPage();
-                        }
-                    });
-                }
-            });
-        }
+                    Toast.makeText(MainActivity.this, 
+                            "Analyzed " + analyzedCount[0] + " of " + totalCount + " messages", 
+                            Toast.LENGTH_SHORT).show();
+                });
+            }
+            
+            @Override
+            public void onError(Message message, String error) {
+                Log.e("MainActivity", "Error analyzing message: " + error);
+            }
+            
+            @Override
+            public void onComplete() {
+                // All messages have been analyzed (including failures), refresh the contacts
+                runOnUiThread(() -> refreshContactsPage());
+            }
+        });
     }
     
     private void refreshContactsPage() {
@@ -878,6 +868,22 @@ public class MainActivity extends AppCompatActivity
         });
     }
     
+    @Override
+    protected void onStart() {
+        super.onStart();
+        
+        // The app is in the foreground, so checks are likely; wake the backend ahead of them
+        com.example.smsshield.api.SmsAnalyzerService.getInstance(this).warmUp();
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        
+        // Leave a snapshot of the analyzer metrics behind for debugging
+        com.example.smsshield.metrics.MetricsRegistry.getInstance().dumpInBackground(this);
+    }
+    
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -966,9 +972,9 @@ public class MainActivity extends AppCompatActivity
     
     // Check unverified messages
     private void checkUnverifiedMessages(List<Message> messages) {
-        // Create analyzer service
+        // Get the shared analyzer service
         com.example.smsshield.api.SmsAnalyzerService analyzerService = 
-                new com.example.smsshield.api.SmsAnalyzerService(this, new com.example.smsshield.repository.MessageRepository(this));
+                com.example.smsshield.api.SmsAnalyzerService.getInstance(this);
         
         // Find unverified messages and check them if we have internet
         if (isNetworkAvailable()) {
@@ -986,23 +992,25 @@ public class MainActivity extends AppCompatActivity
                 }
             }
             
-            // Process each unchecked message
-            for (Message message : uncheckedMessages) {
-                analyzerService.analyzeMessage(message, new com.example.smsshield.api.SmsAnalyzerService.AnalysisCallback() {
-                    @Override
-                    public void onResult(boolean isSpam, String resultMessage) {
-                        // Update message status
-                        String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
-                        messageViewModel.updateMessageStatus(message.getId(), newStatus);
-                    }
-                    
-                    @Override
-                    public void onError(String error) {
-                        // Leave as unchecked
-                        Log.e("MainActivity", "Error checking message: " + error);
-                    }
-                });
-            }
+            // Check all unchecked messages in one batch
+            analyzerService.analyzeMessages(uncheckedMessages, new com.example.smsshield.api.SmsAnalyzerService.BatchCallback() {
+                @Override
+                public void onResult(Message message, boolean isSpam, String resultMessage) {
+                    // The analyzer has already saved the new status
+                    Log.d("MainActivity", "Checked message " + message.getId() + ": " + (isSpam ? "spam" : "safe"));
+                }
+                
+                @Override
+                public void onError(Message message, String error) {
+                    // Leave as unchecked
+                    Log.e("MainActivity", "Error checking message: " + error);
+                }
+                
+                @Override
+                public void onComplete() {
+                    // Statuses are updated per message as results arrive
+                }
+            });
         } else {
             // Queue messages for later checking
             List<Message> messagesToQueue = new ArrayList<>();
@@ -1021,22 +1029,16 @@ public class MainActivity extends AppCompatActivity
     
     // Helper methods for message queue
     private void addMessagesToCheckQueue(List<Message> messages) {
-        // Get shared preferences
-        SharedPreferences prefs = getSharedPreferences("message_queue_prefs", MODE_PRIVATE);
-        
-        // Get existing queue
-        Set<String> queuedMessageIds = prefs.getStringSet("message_ids", new HashSet<>());
-        
-        // Create a new set (because the returned set might be unmodifiable)
-        Set<String> updatedQueue = new HashSet<>(queuedMessageIds);
-        
-        // Add new message IDs
+        List<Long> messageIds = new ArrayList<>(messages.size());
         for (Message message : messages) {
-            updatedQueue.add(String.valueOf(message.getId()));
+            messageIds.add(message.getId());
         }
         
-        // Save updated queue
-        prefs.edit().putStringSet("message_ids", updatedQueue).apply();
+        // The background drainer checks them once the device is back online
+        Context appContext = getApplicationContext();
+        com.example.smsshield.api.AnalysisQueue.getInstance(this).enqueue(messageIds,
+                com.example.smsshield.api.AnalysisPriority.BACKFILL,
+                () -> com.example.smsshield.workers.AnalysisQueueWorker.drainNow(appContext));
         
         Log.d("MainActivity", "Added " + messages.size() + " messages to check queue");
     }
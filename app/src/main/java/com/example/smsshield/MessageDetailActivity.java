@@ -8,7 +8,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
@@ -45,9 +44,7 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class MessageDetailActivity extends AppCompatActivity implements ChatAdapter.OnMessageLongClickListener {
     
@@ -582,7 +579,7 @@ public class MessageDetailActivity extends AppCompatActivity implements ChatAdap
         
         // Use API service to check the message
         com.example.smsshield.api.SmsAnalyzerService analyzerService = 
-                new com.example.smsshield.api.SmsAnalyzerService(this, new com.example.smsshield.repository.MessageRepository(this));
+                com.example.smsshield.api.SmsAnalyzerService.getInstance(this);
         
         analyzerService.analyzeMessage(message, new com.example.smsshield.api.SmsAnalyzerService.AnalysisCallback() {
             @Override
@@ -592,11 +589,7 @@ public class MessageDetailActivity extends AppCompatActivity implements ChatAdap
                     // Hide spinner
                     progressApiChecking.setVisibility(View.GONE);
                     
-                    // Update message status
-                    String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
-                    messageViewModel.updateMessageStatus(message.getId(), newStatus);
-                    
-                    // Show result toast
+                    // Show result toast; the analyzer has already saved the new status
                     String resultText = isSpam ? "Message marked as SPAM" : "Message marked as SAFE";
                     Toast.makeText(MessageDetailActivity.this, resultText, Toast.LENGTH_SHORT).show();
                 });
@@ -645,128 +638,24 @@ public class MessageDetailActivity extends AppCompatActivity implements ChatAdap
         return false;
     }
     
-    // Implement message queue for offline messages
-    private static final String MESSAGE_QUEUE_PREFS = "message_queue_prefs";
-    private static final String MESSAGE_QUEUE_KEY = "message_ids";
-    
     private void addToMessageCheckQueue(long messageId) {
-        // Get shared preferences
-        SharedPreferences prefs = getSharedPreferences(MESSAGE_QUEUE_PREFS, MODE_PRIVATE);
-        
-        // Get existing queue
-        Set<String> queuedMessageIds = prefs.getStringSet(MESSAGE_QUEUE_KEY, new HashSet<>());
-        
-        // Create a new set (because the returned set might be unmodifiable)
-        Set<String> updatedQueue = new HashSet<>(queuedMessageIds);
-        
-        // Add new message ID
-        updatedQueue.add(String.valueOf(messageId));
-        
-        // Save updated queue
-        prefs.edit().putStringSet(MESSAGE_QUEUE_KEY, updatedQueue).apply();
+        // The user asked for this check, so it goes ahead of bulk work
+        Context appContext = getApplicationContext();
+        com.example.smsshield.api.AnalysisQueue.getInstance(this).enqueue(messageId,
+                com.example.smsshield.api.AnalysisPriority.INTERACTIVE,
+                () -> com.example.smsshield.workers.AnalysisQueueWorker.drainNow(appContext));
         
         Log.d(TAG, "Added message ID " + messageId + " to check queue");
     }
     
-    // Process queued messages if internet is available
-    private void processMessageQueue() {
-        if (!isNetworkAvailable()) {
-            return;
-        }
-        
-        // Get shared preferences
-        SharedPreferences prefs = getSharedPreferences(MESSAGE_QUEUE_PREFS, MODE_PRIVATE);
-        
-        // Get queued message IDs
-        Set<String> queuedMessageIds = prefs.getStringSet(MESSAGE_QUEUE_KEY, new HashSet<>());
-        
-        if (queuedMessageIds.isEmpty()) {
-            return;
-        }
-        
-        // Create analyzer service
-        com.example.smsshield.api.SmsAnalyzerService analyzerService = 
-                new com.example.smsshield.api.SmsAnalyzerService(this, new com.example.smsshield.repository.MessageRepository(this));
-        
-        // Process each message
-        com.example.smsshield.repository.MessageRepository repository = 
-                new com.example.smsshield.repository.MessageRepository(this);
-        
-        Set<String> processedIds = new HashSet<>();
-        
-        for (String idStr : queuedMessageIds) {
-            try {
-                long messageId = Long.parseLong(idStr);
-                Message message = repository.getMessageById(messageId);
-                
-                if (message != null) {
-                    // Show spinner for current message checking
-                    runOnUiThread(() -> progressApiChecking.setVisibility(View.VISIBLE));
-                    
-                    // Check message
-                    analyzerService.analyzeMessage(message, new com.example.smsshield.api.SmsAnalyzerService.AnalysisCallback() {
-                        @Override
-                        public void onResult(boolean isSpam, String resultMessage) {
-                            // Update message status
-                            String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
-                            messageViewModel.updateMessageStatus(messageId, newStatus);
-                            
-                            // Mark as processed
-                            processedIds.add(idStr);
-                            
-                            // If all messages processed, hide spinner and update queue
-                            if (processedIds.size() >= queuedMessageIds.size()) {
-                                updateQueueAfterProcessing(processedIds);
-                                runOnUiThread(() -> progressApiChecking.setVisibility(View.GONE));
-                            }
-                        }
-                        
-                        @Override
-                        public void onError(String error) {
-                            // Keep in queue if error
-                            Log.e(TAG, "Error processing queued message " + messageId + ": " + error);
-                            
-                            // If all messages attempted, hide spinner and update queue
-                            processedIds.add(idStr);
-                            if (processedIds.size() >= queuedMessageIds.size()) {
-                                updateQueueAfterProcessing(processedIds);
-                                runOnUiThread(() -> progressApiChecking.setVisibility(View.GONE));
-                            }
-                        }
-                    });
-                } else {
-                    // Message no longer exists, mark as processed
-                    processedIds.add(idStr);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing message ID " + idStr, e);
-                processedIds.add(idStr);
-            }
-        }
-    }
-    
-    private void updateQueueAfterProcessing(Set<String> processedIds) {
-        // Get shared preferences
-        SharedPreferences prefs = getSharedPreferences(MESSAGE_QUEUE_PREFS, MODE_PRIVATE);
-        
-        // Get existing queue
-        Set<String> queuedMessageIds = prefs.getStringSet(MESSAGE_QUEUE_KEY, new HashSet<>());
-        
-        // Create a new set with only unprocessed IDs
-        Set<String> remainingQueue = new HashSet<>(queuedMessageIds);
-        remainingQueue.removeAll(processedIds);
-        
-        // Save updated queue
-        prefs.edit().putStringSet(MESSAGE_QUEUE_KEY, remainingQueue).apply();
-        
-        Log.d(TAG, "Processed " + processedIds.size() + " messages, " + remainingQueue.size() + " remaining in queue");
-    }
-    
     @Override
     protected void onResume() {
         super.onResume();
         
-        // Process queued messages when activity resumes
-        new Thread(this::processMessageQueue).start();
+        // Wake the backend ahead of queued and manual checks
+        com.example.smsshield.api.SmsAnalyzerService.getInstance(this).warmUp();
+        
+        // Check queued messages in the background as soon as the network allows
+        com.example.smsshield.workers.AnalysisQueueWorker.drainNow(this);
     }
 } 
\ No newline at end of file
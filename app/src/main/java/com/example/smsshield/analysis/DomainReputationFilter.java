@@ -0,0 +1,214 @@
+package com.example.smsshield.analysis;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Bloom filter of known phishing and spam domains.
+ *
+ * The filter is a memory-mapped file, so a list of a million domains costs a
+ * few megabytes of page cache rather than heap, and a lookup is a handful of
+ * bit probes. Listed domains are folded by {@link TextNormalizer} when the
+ * filter is built, so they match hosts found by {@link UrlScanner} in the
+ * normalized message text, and checking such a host allocates nothing.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "SMBF"
+ *      4     4  format version
+ *      8     8  number of bits (power of two)
+ *     16     4  number of hash functions
+ *     20     4  reserved
+ *     24     8  number of domains added
+ *     32     -  bit array (little-endian longs)
+ * </pre>
+ */
+public final class DomainReputationFilter {
+    private static final String TAG = "DomainReputationFilter";
+
+    /** Optional prebuilt filter; when absent it is built from {@link #LIST_ASSET}. */
+    public static final String FILTER_ASSET = "phishing_domains.bloom";
+    /** Plain-text domain list, one domain per line. */
+    public static final String LIST_ASSET = "phishing_domains.txt";
+
+    private static final int MAGIC = 0x46424d53; // "SMBF" read as a little-endian int
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    private static volatile DomainReputationFilter INSTANCE;
+    private static volatile boolean unavailable;
+
+    private final ByteBuffer bits;
+    private final long bitMask;
+    private final int hashCount;
+
+    DomainReputationFilter(ByteBuffer filter) throws IOException {
+        if (filter.limit() < HEADER_SIZE || filter.getInt(0) != MAGIC) {
+            throw new IOException("Not a domain filter file");
+        }
+        if (filter.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported filter version " + filter.getInt(4));
+        }
+        long bitCount = filter.getLong(8);
+        if (bitCount < Long.SIZE || Long.bitCount(bitCount) != 1
+                || filter.limit() < HEADER_SIZE + bitCount / 8) {
+            throw new IOException("Truncated or corrupt domain filter");
+        }
+        this.bits = filter;
+        this.bitMask = bitCount - 1;
+        this.hashCount = filter.getInt(16);
+    }
+
+    /**
+     * Returns the process-wide filter, mapping it on first use. A missing or
+     * unreadable filter is only reported once; later calls return null cheaply.
+     */
+    public static DomainReputationFilter getInstance(Context context) {
+        if (INSTANCE == null && !unavailable) {
+            synchronized (DomainReputationFilter.class) {
+                if (INSTANCE == null && !unavailable) {
+                    try {
+                        INSTANCE = load(context.getApplicationContext());
+                    } catch (IOException e) {
+                        unavailable = true;
+                        Log.e(TAG, "Unable to load domain reputation filter", e);
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static DomainReputationFilter load(Context context) throws IOException {
+        File file = ModelFiles.getModelFile(context, FILTER_ASSET);
+        if (ModelFiles.isStale(context, file) && !ModelFiles.copyAsset(context, FILTER_ASSET, file)) {
+            try (Reader reader = new InputStreamReader(
+                    context.getAssets().open(LIST_ASSET), StandardCharsets.UTF_8)) {
+                ModelFiles.write(build(reader, DEFAULT_FALSE_POSITIVE_RATE), file);
+            }
+            Log.d(TAG, "Built domain filter from " + LIST_ASSET);
+        }
+        return new DomainReputationFilter(ModelFiles.map(file));
+    }
+
+    /**
+     * Builds filter file contents from one domain per line. Blank lines and
+     * lines starting with '#' are skipped, and a leading "www." is ignored.
+     * Each domain is normalized the way message text is before it is looked
+     * up, so a listed "amaz0n-verify.com" matches the "amazon-verify.com" a
+     * message containing it reads as.
+     */
+    public static ByteBuffer build(Reader domains, double falsePositiveRate) throws IOException {
+        // Read once to size the filter; domain lists are streamed from assets
+        ArrayList<String> entries = new ArrayList<>();
+        TextNormalizer normalizer = new TextNormalizer();
+        BufferedReader reader = new BufferedReader(domains);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && line.charAt(0) != '#') {
+                entries.add(normalizer.normalize(line).toString());
+            }
+        }
+
+        int n = Math.max(entries.size(), 1);
+        double optimalBits = -n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long bitCount = Math.max(Long.SIZE, Long.highestOneBit((long) Math.ceil(optimalBits)) << 1);
+        int hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / n * Math.log(2))));
+
+        ByteBuffer out = ByteBuffer.allocate((int) (HEADER_SIZE + bitCount / 8)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(0, MAGIC);
+        out.putInt(4, FORMAT_VERSION);
+        out.putLong(8, bitCount);
+        out.putInt(16, hashCount);
+        out.putLong(24, entries.size());
+        for (String domain : entries) {
+            int start = regionStartsWithWww(domain, 0, domain.length()) ? 4 : 0;
+            long hash = hash(domain, start, domain.length());
+            long h2 = (hash >>> 32) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = (hash + i * h2) & (bitCount - 1);
+                int index = HEADER_SIZE + (int) (bit >>> 6) * 8;
+                out.putLong(index, out.getLong(index) | (1L << (bit & 63)));
+            }
+        }
+        out.position(0);
+        return out;
+    }
+
+    /**
+     * Returns true if the domain in {@code text[start, end)}, or any parent
+     * domain with at least two labels, may be in the filter. Case is ignored.
+     */
+    public boolean mightContainHost(CharSequence text, int start, int end) {
+        if (regionStartsWithWww(text, start, end)) {
+            start += 4;
+        }
+        int labelStart = start;
+        while (labelStart < end) {
+            int nextDot = indexOf(text, '.', labelStart, end);
+            if (nextDot < 0) {
+                // A single label is a TLD, never a listed domain
+                return false;
+            }
+            if (mightContain(text, labelStart, end)) {
+                return true;
+            }
+            labelStart = nextDot + 1;
+        }
+        return false;
+    }
+
+    private boolean mightContain(CharSequence text, int start, int end) {
+        long hash = hash(text, start, end);
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash + i * h2) & bitMask;
+            long word = bits.getLong(HEADER_SIZE + (int) (bit >>> 6) * 8);
+            if ((word & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a over lowercased characters, finished with the SplitMix64 mixer
+    private static long hash(CharSequence text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static boolean regionStartsWithWww(CharSequence text, int start, int end) {
+        return end - start > 4
+                && Character.toLowerCase(text.charAt(start)) == 'w'
+                && Character.toLowerCase(text.charAt(start + 1)) == 'w'
+                && Character.toLowerCase(text.charAt(start + 2)) == 'w'
+                && text.charAt(start + 3) == '.';
+    }
+
+    private static int indexOf(CharSequence text, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
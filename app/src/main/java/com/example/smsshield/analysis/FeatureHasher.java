@@ -0,0 +1,138 @@
+package com.example.smsshield.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Turns message text into hashed word and character n-gram features.
+ *
+ * Words are maximal runs of letters and digits, lowercased, with every digit
+ * folded to '0' so amounts and codes share features. Character trigrams are
+ * taken inside each word with a space on either side as a boundary marker.
+ * Features are kept as 32-bit hashes in reusable arrays, so extracting them
+ * allocates nothing once the arrays fit the message. An instance is not
+ * thread-safe; give each thread its own hasher.
+ */
+public final class FeatureHasher {
+
+    public static final int NGRAM_SIZE = 3;
+
+    private static final int FNV_OFFSET = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int WORD_SEED = 0x5bd1e995;
+    private static final int NGRAM_SEED = 0x27d4eb2f;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] wordHashes = new int[INITIAL_CAPACITY];
+    private int wordCount;
+    private int[] ngramHashes = new int[INITIAL_CAPACITY];
+    private int ngramCount;
+
+    // Rolling window of the last characters seen inside the current word
+    private final char[] window = new char[NGRAM_SIZE];
+
+    /**
+     * Extracts the features of {@code text}, replacing those of any previous call.
+     *
+     * @return The total number of features found
+     */
+    public int extract(CharSequence text) {
+        wordCount = 0;
+        ngramCount = 0;
+        int length = text.length();
+        int wordHash = FNV_OFFSET;
+        int wordLength = 0;
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? fold(text.charAt(i)) : ' ';
+            if (c != ' ') {
+                if (wordLength == 0) {
+                    window[0] = ' ';
+                    window[1] = ' ';
+                    window[2] = ' ';
+                }
+                wordHash = (wordHash ^ c) * FNV_PRIME;
+                wordLength++;
+                pushChar(c);
+                if (wordLength >= NGRAM_SIZE - 1) {
+                    addNgram();
+                }
+            } else if (wordLength > 0) {
+                // Close the word with a trailing boundary trigram
+                pushChar(' ');
+                addNgram();
+                addWord(finish(wordHash ^ WORD_SEED));
+                wordHash = FNV_OFFSET;
+                wordLength = 0;
+            }
+        }
+        return wordCount + ngramCount;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getWordHash(int index) {
+        return wordHashes[index];
+    }
+
+    public int getNgramCount() {
+        return ngramCount;
+    }
+
+    public int getNgramHash(int index) {
+        return ngramHashes[index];
+    }
+
+    private void pushChar(char c) {
+        window[0] = window[1];
+        window[1] = window[2];
+        window[2] = c;
+    }
+
+    private void addNgram() {
+        int hash = FNV_OFFSET;
+        for (char c : window) {
+            hash = (hash ^ c) * FNV_PRIME;
+        }
+        if (ngramCount == ngramHashes.length) {
+            ngramHashes = Arrays.copyOf(ngramHashes, ngramCount * 2);
+        }
+        ngramHashes[ngramCount++] = finish(hash ^ NGRAM_SEED);
+    }
+
+    private void addWord(int hash) {
+        if (wordCount == wordHashes.length) {
+            wordHashes = Arrays.copyOf(wordHashes, wordCount * 2);
+        }
+        wordHashes[wordCount++] = hash;
+    }
+
+    // Lowercases word characters, folds digits and maps everything else to a separator
+    private static char fold(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c >= '0' && c <= '9') {
+            return '0';
+        }
+        if (c < 128 || !Character.isLetterOrDigit(c)) {
+            return ' ';
+        }
+        return Character.isDigit(c) ? '0' : Character.toLowerCase(c);
+    }
+
+    // Murmur3 finalizer, so neighbouring FNV values spread over all buckets
+    private static int finish(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
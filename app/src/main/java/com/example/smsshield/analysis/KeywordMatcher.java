@@ -0,0 +1,213 @@
+package com.example.smsshield.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a fixed set of lowercase phrases.
+ *
+ * The automaton is compiled once into flat transition and output arrays, so
+ * scanning a message is a single pass over its characters that allocates
+ * nothing. Input characters are lowercased on the fly, so callers do not need
+ * to copy the message first.
+ */
+public final class KeywordMatcher {
+
+    /**
+     * Receives every phrase occurrence found by {@link #scan}.
+     */
+    public interface HitListener {
+        /**
+         * @param patternIndex Index of the phrase in the array passed to the constructor
+         * @param start        Offset of the first matched character
+         * @param end          Offset one past the last matched character
+         */
+        void onHit(int patternIndex, int start, int end);
+    }
+
+    private static final int ASCII_LIMIT = 128;
+
+    private final String[] patterns;
+
+    // Maps an input character to its column in the transition table. Column 0
+    // is reserved for characters that never appear in any pattern.
+    private final int[] asciiClasses = new int[ASCII_LIMIT];
+    private final char[] extraChars;
+    private final int[] extraClasses;
+    private final int alphabetSize;
+
+    // delta[state * alphabetSize + class] is the next state, failure links included
+    private final int[] delta;
+
+    // Patterns ending at a state (directly or through dictionary suffix links)
+    private final int[] outputStart;
+    private final int[] outputs;
+    private final long[] outputMasks;
+
+    public KeywordMatcher(String... phrases) {
+        if (phrases.length == 0) {
+            throw new IllegalArgumentException("At least one phrase is required");
+        }
+        this.patterns = new String[phrases.length];
+        for (int i = 0; i < phrases.length; i++) {
+            if (phrases[i] == null || phrases[i].isEmpty()) {
+                throw new IllegalArgumentException("Empty phrase at index " + i);
+            }
+            patterns[i] = lowerCase(phrases[i]);
+        }
+
+        // Assign a column to every distinct character used by the phrases
+        StringBuilder extras = new StringBuilder();
+        int nextClass = 1;
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c < ASCII_LIMIT) {
+                    if (asciiClasses[c] == 0) {
+                        asciiClasses[c] = nextClass++;
+                    }
+                } else if (extras.indexOf(String.valueOf(c)) < 0) {
+                    extras.append(c);
+                }
+            }
+        }
+        extraChars = extras.toString().toCharArray();
+        Arrays.sort(extraChars);
+        extraClasses = new int[extraChars.length];
+        for (int i = 0; i < extraChars.length; i++) {
+            extraClasses[i] = nextClass++;
+        }
+        alphabetSize = nextClass;
+
+        // Build the trie with a growable goto table
+        int maxStates = 1;
+        for (String pattern : patterns) {
+            maxStates += pattern.length();
+        }
+        int[] gotoTable = new int[maxStates * alphabetSize];
+        Arrays.fill(gotoTable, -1);
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        stateOutputs.add(new ArrayList<>());
+        int stateCount = 1;
+
+        for (int p = 0; p < patterns.length; p++) {
+            String pattern = patterns[p];
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int column = state * alphabetSize + classOf(pattern.charAt(i));
+                if (gotoTable[column] < 0) {
+                    gotoTable[column] = stateCount++;
+                    stateOutputs.add(new ArrayList<>());
+                }
+                state = gotoTable[column];
+            }
+            stateOutputs.get(state).add(p);
+        }
+
+        // Breadth-first pass computes failure links and folds them into a full DFA
+        int[] failure = new int[stateCount];
+        delta = new int[stateCount * alphabetSize];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < alphabetSize; c++) {
+            int next = gotoTable[c];
+            if (next < 0) {
+                delta[c] = 0;
+            } else {
+                delta[c] = next;
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+            for (int c = 0; c < alphabetSize; c++) {
+                int next = gotoTable[state * alphabetSize + c];
+                if (next < 0) {
+                    delta[state * alphabetSize + c] = delta[failure[state] * alphabetSize + c];
+                } else {
+                    delta[state * alphabetSize + c] = next;
+                    failure[next] = delta[failure[state] * alphabetSize + c];
+                    queue.add(next);
+                }
+            }
+        }
+
+        // Flatten the per-state output lists
+        outputStart = new int[stateCount + 1];
+        outputMasks = new long[stateCount];
+        int total = 0;
+        for (int s = 0; s < stateCount; s++) {
+            total += stateOutputs.get(s).size();
+        }
+        outputs = new int[total];
+        int offset = 0;
+        for (int s = 0; s < stateCount; s++) {
+            outputStart[s] = offset;
+            for (int p : stateOutputs.get(s)) {
+                outputs[offset++] = p;
+                if (p < Long.SIZE) {
+                    outputMasks[s] |= 1L << p;
+                }
+            }
+        }
+        outputStart[stateCount] = offset;
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    public String getPattern(int index) {
+        return patterns[index];
+    }
+
+    /**
+     * Reports every occurrence of every phrase in {@code text}, including
+     * overlapping ones, in order of their end offset.
+     */
+    public void scan(CharSequence text, HitListener listener) {
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = delta[state * alphabetSize + classOf(Character.toLowerCase(text.charAt(i)))];
+            for (int o = outputStart[state]; o < outputStart[state + 1]; o++) {
+                int pattern = outputs[o];
+                listener.onHit(pattern, i + 1 - patterns[pattern].length(), i + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns a bitmask with bit {@code i} set when phrase {@code i} occurs in
+     * {@code text}. Only the first 64 phrases are represented.
+     */
+    public long matchMask(CharSequence text) {
+        long mask = 0;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = delta[state * alphabetSize + classOf(Character.toLowerCase(text.charAt(i)))];
+            mask |= outputMasks[state];
+        }
+        return mask;
+    }
+
+    private int classOf(char c) {
+        if (c < ASCII_LIMIT) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(extraChars, c);
+        return index >= 0 ? extraClasses[index] : 0;
+    }
+
+    private static String lowerCase(String phrase) {
+        char[] chars = phrase.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.smsshield.analysis;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * On-device first stage of message classification.
+ *
+ * Runs the cheap local checks in order of strength: a link to a domain in
+ * the reputation filter decides outright, then the Naive Bayes model gives a
+ * probability. Keyword scoring is used when the model cannot be loaded, and
+ * is never treated as confident on its own.
+ */
+public final class LocalClassifier {
+    private static final String TAG = "LocalClassifier";
+
+    /** Probability reported for rules that decide a message on their own. */
+    public static final float DECISIVE_SPAM = 1.0f;
+    // The model is never as sure as a rule, even when a float sigmoid rounds to 1
+    private static final float MAX_MODEL_SPAM = Math.nextDown(DECISIVE_SPAM);
+    // Keyword scoring is too coarse to skip the backend, so it stays inside any sane band
+    private static final float KEYWORD_SPAM = 0.75f;
+    private static final float KEYWORD_SAFE = 0.25f;
+
+    public static final String SOURCE_DOMAIN_FILTER = "domain_filter";
+    public static final String SOURCE_MODEL = "model";
+    public static final String SOURCE_KEYWORDS = "keywords";
+
+    // Phrases scored by the keyword fallback, compiled once into a single automaton.
+    // "verify" is listed twice on purpose: it has always counted double.
+    private static final String[] SPAM_INDICATORS = {
+        "congrat", "won", "prize", "lottery", "cash", "claim",
+        "free", "offer", "limited time", "click", "link", "verify",
+        "account", "urgent", "alert", "bank", "credit", "update",
+        "confirm", "password", "verify", "login", "suspended",
+        "unusual activity", "gift card", "bitcoin"
+    };
+    private static final String[] SYMBOL_MARKERS = {"$", "€", "%", "!"};
+
+    private static final KeywordMatcher KEYWORD_MATCHER = new KeywordMatcher(
+            concat(SPAM_INDICATORS, SYMBOL_MARKERS));
+    private static final long INDICATOR_MASK = rangeMask(0, SPAM_INDICATORS.length);
+    private static final long SYMBOL_MASK = rangeMask(SPAM_INDICATORS.length, SYMBOL_MARKERS.length);
+
+    // Scanners keep their hits between calls, so each thread reuses its own
+    private static final ThreadLocal<UrlScanner> URL_SCANNER = new ThreadLocal<UrlScanner>() {
+        @Override
+        protected UrlScanner initialValue() {
+            return new UrlScanner();
+        }
+    };
+    private static final ThreadLocal<TextNormalizer> NORMALIZER = new ThreadLocal<TextNormalizer>() {
+        @Override
+        protected TextNormalizer initialValue() {
+            return new TextNormalizer();
+        }
+    };
+
+    private static volatile LocalClassifier INSTANCE;
+
+    private final Context appContext;
+
+    /**
+     * Outcome of local classification.
+     */
+    public static final class Verdict {
+        private final float spamProbability;
+        private final String source;
+
+        Verdict(float spamProbability, String source) {
+            this.spamProbability = spamProbability;
+            this.source = source;
+        }
+
+        /**
+         * @return The probability, between 0 and 1, that the message is spam
+         */
+        public float getSpamProbability() {
+            return spamProbability;
+        }
+
+        /**
+         * @return Which check produced the verdict, one of the {@code SOURCE_} constants
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public boolean isSpam() {
+            return spamProbability >= 0.5f;
+        }
+    }
+
+    private LocalClassifier(Context context) {
+        this.appContext = context;
+    }
+
+    public static LocalClassifier getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (LocalClassifier.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LocalClassifier(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Classifies a message body. Loads the model and filters on first use, so
+     * the first call should not be made on the main thread.
+     */
+    public Verdict classify(String messageContent) {
+        if (messageContent == null || messageContent.isEmpty()) {
+            return new Verdict(0f, SOURCE_KEYWORDS);
+        }
+
+        // Every check below sees the same folded text, so look-alike characters
+        // cannot slip past one rule while being caught by another
+        TextNormalizer text = NORMALIZER.get().normalize(messageContent);
+
+        if (hasKnownMaliciousLink(text)) {
+            return new Verdict(DECISIVE_SPAM, SOURCE_DOMAIN_FILTER);
+        }
+
+        NaiveBayesClassifier classifier = NaiveBayesClassifier.getInstance(appContext);
+        if (classifier != null) {
+            return new Verdict(Math.min(classifier.spamProbability(text), MAX_MODEL_SPAM), SOURCE_MODEL);
+        }
+
+        return new Verdict(isKeywordSpam(text) ? KEYWORD_SPAM : KEYWORD_SAFE, SOURCE_KEYWORDS);
+    }
+
+    /**
+     * Checks every host linked from the message against the domain reputation
+     * filter. The filter is only loaded once a message actually contains a link.
+     */
+    private boolean hasKnownMaliciousLink(CharSequence messageContent) {
+        UrlScanner urlScanner = URL_SCANNER.get();
+        int hostCount = urlScanner.scan(messageContent);
+        if (hostCount == 0) {
+            return false;
+        }
+        DomainReputationFilter filter = DomainReputationFilter.getInstance(appContext);
+        if (filter == null) {
+            return false;
+        }
+        for (int i = 0; i < hostCount; i++) {
+            if (filter.mightContainHost(messageContent, urlScanner.getHostStart(i), urlScanner.getHostEnd(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keyword scoring used when the local model is unavailable.
+     */
+    private boolean isKeywordSpam(CharSequence messageContent) {
+        // One pass over the message finds every indicator and symbol
+        long hits = KEYWORD_MATCHER.matchMask(messageContent);
+
+        // Count spam indicators
+        int spamScore = Long.bitCount(hits & INDICATOR_MASK);
+
+        // Check for URLs, and count link shorteners as an extra indicator
+        UrlScanner urlScanner = URL_SCANNER.get();
+        if (urlScanner.scan(messageContent) > 0) {
+            spamScore += 2;
+            if ((urlScanner.getCombinedFlags() & UrlScanner.FLAG_SHORTENER) != 0) {
+                spamScore++;
+            }
+        }
+
+        // Check for unusual characters or formatting
+        if ((hits & SYMBOL_MASK) != 0) {
+            spamScore++;
+        }
+
+        // Calculate threshold based on message length
+        int threshold = 2;
+        if (messageContent.length() > 50) {
+            threshold = 3;  // Require more indicators for longer messages
+        }
+
+        Log.d(TAG, "Keyword spam score: " + spamScore + ", threshold: " + threshold);
+        return spamScore >= threshold;
+    }
+
+    private static String[] concat(String[]... groups) {
+        int length = 0;
+        for (String[] group : groups) {
+            length += group.length;
+        }
+        String[] result = new String[length];
+        int offset = 0;
+        for (String[] group : groups) {
+            System.arraycopy(group, 0, result, offset, group.length);
+            offset += group.length;
+        }
+        return result;
+    }
+
+    private static long rangeMask(int from, int count) {
+        return ((1L << count) - 1) << from;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.smsshield.analysis;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Helpers for the binary files behind the local classifiers.
+ *
+ * APK assets are compressed and cannot be memory-mapped in place, so each
+ * model is copied (or built) once into the app's no-backup directory and
+ * mapped read-only from there. Lookups then read straight from the page
+ * cache instead of a parsed copy on the heap.
+ */
+public final class ModelFiles {
+    private static final String TAG = "ModelFiles";
+    private static final String MODEL_DIR = "models";
+
+    private ModelFiles() {
+    }
+
+    public static File getModelFile(Context context, String name) {
+        File dir = new File(context.getNoBackupFilesDir(), MODEL_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Unable to create model directory " + dir);
+        }
+        return new File(dir, name);
+    }
+
+    /**
+     * Returns true if {@code file} is missing or older than the installed APK,
+     * meaning it has to be copied or rebuilt from the current assets.
+     */
+    public static boolean isStale(Context context, File file) {
+        if (!file.isFile() || file.length() == 0) {
+            return true;
+        }
+        try {
+            long installed = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            return file.lastModified() < installed;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies an asset to {@code target}, replacing it atomically.
+     *
+     * @return false if the asset is not shipped with this build
+     */
+    public static boolean copyAsset(Context context, String assetName, File target) throws IOException {
+        InputStream in;
+        try {
+            in = context.getAssets().open(assetName);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        File temp = new File(target.getPath() + ".tmp");
+        try (InputStream source = in; OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        replace(temp, target);
+        return true;
+    }
+
+    /**
+     * Writes the remaining bytes of {@code data} to {@code target}, replacing it atomically.
+     */
+    public static void write(ByteBuffer data, File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            out.getFD().sync();
+        }
+        replace(temp, target);
+    }
+
+    /**
+     * Maps {@code file} read-only with little-endian byte order.
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static void replace(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + target);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.smsshield.analysis;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Multinomial Naive Bayes spam classifier over hashed features.
+ *
+ * The model lives in a versioned little-endian binary file that is mapped
+ * into memory rather than parsed, so loading it costs a few system calls and
+ * scoring reads weights straight from the page cache:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "SMNB"
+ *      4     4  format version
+ *      8     4  table capacity (power of two)
+ *     12     4  n-gram size used by {@link FeatureHasher}
+ *     16     4  calibration intercept (float)
+ *     20     4  weight scale (float)
+ *     24     4  weight of features missing from the table (float)
+ *     28     4  number of features in the table
+ *     32     4  calibration slope (float)
+ *     36  4*cap feature hash table (int keys, 0 = empty slot, linear probing)
+ *      -    cap quantized weights (int8, weight = value * scale)
+ * </pre>
+ *
+ * Each weight is log P(feature | spam) - log P(feature | ham), so scoring a
+ * message is a sum of table lookups with no maps and no boxing.
+ *
+ * Summing those weights treats every word and trigram as independent
+ * evidence, which they are not, so the raw sum is wildly overconfident. The
+ * score is therefore the mean weight per feature, mapped to log-odds by a
+ * slope and intercept that the trainer fits on held-out messages (Platt
+ * scaling), which makes {@link #spamProbability} usable as a probability.
+ */
+public final class NaiveBayesClassifier {
+    private static final String TAG = "NaiveBayesClassifier";
+
+    /** Labelled training corpus shipped in the app's assets. */
+    public static final String CORPUS_ASSET = "sms_corpus.tsv";
+    /** Optional prebuilt model; when absent the model is trained from the corpus. */
+    public static final String MODEL_ASSET = "sms_model.bin";
+
+    static final int MAGIC = 0x424e4d53; // "SMNB" read as a little-endian int
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 36;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_NGRAM_SIZE = 12;
+    private static final int OFFSET_INTERCEPT = 16;
+    private static final int OFFSET_SCALE = 20;
+    private static final int OFFSET_DEFAULT_WEIGHT = 24;
+    private static final int OFFSET_SLOPE = 32;
+
+    private static volatile NaiveBayesClassifier INSTANCE;
+
+    // Per-thread hashers, since each keeps the features of its last message
+    private static final ThreadLocal<FeatureHasher> HASHER = new ThreadLocal<FeatureHasher>() {
+        @Override
+        protected FeatureHasher initialValue() {
+            return new FeatureHasher();
+        }
+    };
+
+    private final ByteBuffer model;
+    private final int capacityMask;
+    private final int weightsOffset;
+    private final float intercept;
+    private final float slope;
+    private final float scale;
+    private final float defaultWeight;
+
+    private NaiveBayesClassifier(ByteBuffer model) throws IOException {
+        if (model.limit() < HEADER_SIZE || model.getInt(OFFSET_MAGIC) != MAGIC) {
+            throw new IOException("Not a Naive Bayes model file");
+        }
+        if (model.getInt(OFFSET_VERSION) != FORMAT_VERSION) {
+            throw new IOException("Unsupported model version " + model.getInt(OFFSET_VERSION));
+        }
+        if (model.getInt(OFFSET_NGRAM_SIZE) != FeatureHasher.NGRAM_SIZE) {
+            throw new IOException("Model was built for a different feature set");
+        }
+        int capacity = model.getInt(OFFSET_CAPACITY);
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1
+                || model.limit() < HEADER_SIZE + 5L * capacity) {
+            throw new IOException("Truncated or corrupt model file");
+        }
+        this.model = model;
+        this.capacityMask = capacity - 1;
+        this.weightsOffset = HEADER_SIZE + 4 * capacity;
+        this.intercept = model.getFloat(OFFSET_INTERCEPT);
+        this.slope = model.getFloat(OFFSET_SLOPE);
+        this.scale = model.getFloat(OFFSET_SCALE);
+        this.defaultWeight = model.getFloat(OFFSET_DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Returns the process-wide classifier. On first use the model file is
+     * copied from {@link #MODEL_ASSET}, or trained from {@link #CORPUS_ASSET}
+     * if no prebuilt model is shipped, and then memory-mapped.
+     *
+     * @return The classifier, or null if no model could be loaded
+     */
+    public static NaiveBayesClassifier getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (NaiveBayesClassifier.class) {
+                if (INSTANCE == null) {
+                    try {
+                        INSTANCE = load(context.getApplicationContext());
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to load local classifier", e);
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static NaiveBayesClassifier load(Context context) throws IOException {
+        long start = System.nanoTime();
+        File file = ModelFiles.getModelFile(context, MODEL_ASSET);
+        if (ModelFiles.isStale(context, file) && !ModelFiles.copyAsset(context, MODEL_ASSET, file)) {
+            trainInto(context, file);
+        }
+        NaiveBayesClassifier classifier;
+        try {
+            classifier = new NaiveBayesClassifier(ModelFiles.map(file));
+        } catch (IOException e) {
+            // Left by an older build in an earlier format; the corpus always gives a current one
+            Log.w(TAG, "Rebuilding unreadable model: " + e.getMessage());
+            trainInto(context, file);
+            classifier = new NaiveBayesClassifier(ModelFiles.map(file));
+        }
+        Log.d(TAG, "Model ready in " + (System.nanoTime() - start) / 1000 + " us");
+        return classifier;
+    }
+
+    private static void trainInto(Context context, File file) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                context.getAssets().open(CORPUS_ASSET), StandardCharsets.UTF_8)) {
+            ModelFiles.write(NaiveBayesTrainer.train(reader), file);
+        }
+        Log.d(TAG, "Trained model from " + CORPUS_ASSET);
+    }
+
+    /**
+     * Wraps model bytes in the format described above. The buffer is read
+     * with absolute gets only and must not be modified afterwards.
+     */
+    public static NaiveBayesClassifier fromBuffer(ByteBuffer model) throws IOException {
+        return new NaiveBayesClassifier(model.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Trains a classifier in memory from tab-separated corpus lines.
+     *
+     * @see NaiveBayesTrainer#train(Reader)
+     */
+    public static NaiveBayesClassifier train(Reader corpus) throws IOException {
+        return fromBuffer(NaiveBayesTrainer.train(corpus));
+    }
+
+    /**
+     * Scores a message. The model is trained on {@link TextNormalizer} output,
+     * so {@code text} should be normalized the same way.
+     *
+     * @return The calibrated log-odds that {@code text} is spam; positive means spam is more likely
+     */
+    public float score(CharSequence text) {
+        return slope * meanWeight(text) + intercept;
+    }
+
+    /**
+     * Mean weight over the features of {@code text}, before calibration, or
+     * 0 if it has none.
+     */
+    float meanWeight(CharSequence text) {
+        FeatureHasher hasher = HASHER.get();
+        int count = hasher.extract(text);
+        if (count == 0) {
+            return 0f;
+        }
+        float sum = 0f;
+        for (int i = 0; i < hasher.getWordCount(); i++) {
+            sum += weight(hasher.getWordHash(i));
+        }
+        for (int i = 0; i < hasher.getNgramCount(); i++) {
+            sum += weight(hasher.getNgramHash(i));
+        }
+        return sum / count;
+    }
+
+    /**
+     * @return The probability, between 0 and 1, that {@code text} is spam
+     */
+    public float spamProbability(CharSequence text) {
+        return (float) (1.0 / (1.0 + Math.exp(-score(text))));
+    }
+
+    private float weight(int featureHash) {
+        int key = tableKey(featureHash);
+        int slot = key & capacityMask;
+        while (true) {
+            int stored = model.getInt(HEADER_SIZE + 4 * slot);
+            if (stored == key) {
+                return model.get(weightsOffset + slot) * scale;
+            }
+            if (stored == 0) {
+                return defaultWeight;
+            }
+            slot = (slot + 1) & capacityMask;
+        }
+    }
+
+    /**
+     * Maps a feature hash to its key in the table, where 0 marks an empty slot.
+     */
+    static int tableKey(int featureHash) {
+        return featureHash == 0 ? 1 : featureHash;
+    }
+}
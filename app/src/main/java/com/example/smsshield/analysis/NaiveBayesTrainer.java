@@ -0,0 +1,293 @@
+package com.example.smsshield.analysis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds {@link NaiveBayesClassifier} model files from a labelled corpus.
+ *
+ * Feature counts are kept in a primitive open-addressing table keyed by
+ * feature hash, so training never boxes a count.
+ *
+ * The calibration is fitted by cross-validation: the corpus is split into
+ * {@value #FOLDS} folds, each fold is scored by a model trained on the
+ * others, and a logistic curve is fitted to those held-out scores. Scores
+ * of messages the model was trained on would look far more certain than
+ * scores of new messages.
+ */
+final class NaiveBayesTrainer {
+
+    // Laplace smoothing applied to every feature count
+    private static final double SMOOTHING = 1.0;
+
+    private static final int FOLDS = 5;
+    // Newton's method for the calibration fit; it usually converges in under ten steps
+    private static final int MAX_FIT_ITERATIONS = 100;
+    private static final double FIT_TOLERANCE = 1e-5;
+
+    private static final int SPAM = 0;
+    private static final int HAM = 1;
+
+    private int[] keys = new int[4096];
+    private int[][] counts = {new int[4096], new int[4096]};
+    private int size;
+    private final long[] totals = new long[2];
+    private final int[] documents = new int[2];
+    private final FeatureHasher hasher = new FeatureHasher();
+    private final TextNormalizer normalizer = new TextNormalizer();
+
+    /**
+     * Trains from tab-separated {@code label<TAB>text} lines, where label is
+     * "spam" or "ham". Blank lines and lines starting with '#' are skipped.
+     *
+     * @return The model file contents, positioned at zero
+     */
+    static ByteBuffer train(Reader corpus) throws IOException {
+        List<String> texts = new ArrayList<>();
+        List<Integer> labels = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(corpus);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("spam\t")) {
+                texts.add(line.substring(5));
+                labels.add(SPAM);
+            } else if (line.startsWith("ham\t")) {
+                texts.add(line.substring(4));
+                labels.add(HAM);
+            }
+        }
+
+        double[] calibration = calibrate(texts, labels);
+        NaiveBayesTrainer trainer = new NaiveBayesTrainer();
+        for (int i = 0; i < texts.size(); i++) {
+            trainer.add(labels.get(i), texts.get(i));
+        }
+        return trainer.build(calibration[0], calibration[1]);
+    }
+
+    /**
+     * Scores every message with a model that did not see it and fits the
+     * calibration to those scores.
+     *
+     * @return The slope and intercept
+     */
+    private static double[] calibrate(List<String> texts, List<Integer> labels) throws IOException {
+        // Deal each class out over the folds in turn, so every fold holds both
+        int[] fold = new int[texts.size()];
+        int[] dealt = new int[2];
+        for (int i = 0; i < texts.size(); i++) {
+            fold[i] = dealt[labels.get(i)]++ % FOLDS;
+        }
+
+        double[] scores = new double[texts.size()];
+        boolean[] spam = new boolean[texts.size()];
+        TextNormalizer normalizer = new TextNormalizer();
+        for (int f = 0; f < FOLDS; f++) {
+            NaiveBayesTrainer trainer = new NaiveBayesTrainer();
+            for (int i = 0; i < texts.size(); i++) {
+                if (fold[i] != f) {
+                    trainer.add(labels.get(i), texts.get(i));
+                }
+            }
+            NaiveBayesClassifier model = NaiveBayesClassifier.fromBuffer(trainer.build(1, 0));
+            for (int i = 0; i < texts.size(); i++) {
+                if (fold[i] == f) {
+                    scores[i] = model.meanWeight(normalizer.normalize(texts.get(i)));
+                    spam[i] = labels.get(i) == SPAM;
+                }
+            }
+        }
+        return fitLogistic(scores, spam);
+    }
+
+    /**
+     * Fits {@code P(spam) = 1 / (1 + exp(-(slope * score + intercept)))} by
+     * Newton's method with a backtracking line search, as in Platt scaling.
+     * The targets are pulled in from 0 and 1 by the class sizes, so a corpus
+     * the model separates perfectly still gives a finite slope rather than
+     * certainty.
+     *
+     * @return The slope and intercept
+     */
+    static double[] fitLogistic(double[] scores, boolean[] spam) {
+        int positives = 0;
+        for (boolean isSpam : spam) {
+            if (isSpam) {
+                positives++;
+            }
+        }
+        int negatives = spam.length - positives;
+        double highTarget = (positives + 1.0) / (positives + 2.0);
+        double lowTarget = 1.0 / (negatives + 2.0);
+        double[] targets = new double[spam.length];
+        for (int i = 0; i < spam.length; i++) {
+            targets[i] = spam[i] ? highTarget : lowTarget;
+        }
+
+        double slope = 1.0;
+        double intercept = Math.log((positives + 1.0) / (negatives + 1.0));
+        double loss = logLoss(scores, targets, slope, intercept);
+        for (int iteration = 0; iteration < MAX_FIT_ITERATIONS; iteration++) {
+            double gradSlope = 0;
+            double gradIntercept = 0;
+            // Kept off zero so the Hessian stays invertible
+            double hSlope = 1e-12;
+            double hIntercept = 1e-12;
+            double hCross = 0;
+            for (int i = 0; i < scores.length; i++) {
+                double p = sigmoid(slope * scores[i] + intercept);
+                double error = p - targets[i];
+                double curvature = p * (1 - p);
+                gradSlope += error * scores[i];
+                gradIntercept += error;
+                hSlope += curvature * scores[i] * scores[i];
+                hIntercept += curvature;
+                hCross += curvature * scores[i];
+            }
+            if (Math.abs(gradSlope) < FIT_TOLERANCE && Math.abs(gradIntercept) < FIT_TOLERANCE) {
+                break;
+            }
+            double determinant = hSlope * hIntercept - hCross * hCross;
+            double stepSlope = -(hIntercept * gradSlope - hCross * gradIntercept) / determinant;
+            double stepIntercept = -(hSlope * gradIntercept - hCross * gradSlope) / determinant;
+            double descent = gradSlope * stepSlope + gradIntercept * stepIntercept;
+
+            double step = 1.0;
+            double nextLoss;
+            while (true) {
+                nextLoss = logLoss(scores, targets, slope + step * stepSlope, intercept + step * stepIntercept);
+                if (nextLoss <= loss + 1e-4 * step * descent || step < 1e-10) {
+                    break;
+                }
+                step /= 2;
+            }
+            if (step < 1e-10) {
+                break;
+            }
+            slope += step * stepSlope;
+            intercept += step * stepIntercept;
+            loss = nextLoss;
+        }
+        return new double[]{slope, intercept};
+    }
+
+    // Cross-entropy against soft targets, computed without overflowing exp
+    private static double logLoss(double[] scores, double[] targets, double slope, double intercept) {
+        double loss = 0;
+        for (int i = 0; i < scores.length; i++) {
+            double z = slope * scores[i] + intercept;
+            double logOnePlusExpMinusZ = z >= 0 ? Math.log1p(Math.exp(-z)) : -z + Math.log1p(Math.exp(z));
+            // -log p = log(1 + e^-z) and -log(1 - p) = z + log(1 + e^-z)
+            loss += targets[i] * logOnePlusExpMinusZ + (1 - targets[i]) * (z + logOnePlusExpMinusZ);
+        }
+        return loss;
+    }
+
+    private static double sigmoid(double z) {
+        return 1.0 / (1.0 + Math.exp(-z));
+    }
+
+    private void add(int label, CharSequence text) {
+        hasher.extract(normalizer.normalize(text));
+        for (int i = 0; i < hasher.getWordCount(); i++) {
+            increment(label, NaiveBayesClassifier.tableKey(hasher.getWordHash(i)));
+        }
+        for (int i = 0; i < hasher.getNgramCount(); i++) {
+            increment(label, NaiveBayesClassifier.tableKey(hasher.getNgramHash(i)));
+        }
+        totals[label] += hasher.getWordCount() + hasher.getNgramCount();
+        documents[label]++;
+    }
+
+    private void increment(int label, int key) {
+        if (2 * (size + 1) > keys.length) {
+            grow();
+        }
+        int slot = findSlot(keys, key);
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[label][slot]++;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[][] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[][]{new int[keys.length], new int[keys.length]};
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = findSlot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[SPAM][slot] = oldCounts[SPAM][i];
+                counts[HAM][slot] = oldCounts[HAM][i];
+            }
+        }
+    }
+
+    private static int findSlot(int[] table, int key) {
+        int mask = table.length - 1;
+        int slot = key & mask;
+        while (table[slot] != 0 && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private ByteBuffer build(double slope, double intercept) throws IOException {
+        if (documents[SPAM] == 0 || documents[HAM] == 0) {
+            throw new IOException("Corpus must contain both spam and ham messages");
+        }
+
+        double spamDenominator = Math.log(totals[SPAM] + SMOOTHING * size);
+        double hamDenominator = Math.log(totals[HAM] + SMOOTHING * size);
+        double defaultWeight = hamDenominator - spamDenominator;
+
+        // Keep the table at most half full so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2);
+        if (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        int[] tableKeys = new int[capacity];
+        float[] weights = new float[capacity];
+        float maxWeight = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == 0) {
+                continue;
+            }
+            double spamLog = Math.log(counts[SPAM][i] + SMOOTHING) - spamDenominator;
+            double hamLog = Math.log(counts[HAM][i] + SMOOTHING) - hamDenominator;
+            int slot = findSlot(tableKeys, keys[i]);
+            tableKeys[slot] = keys[i];
+            weights[slot] = (float) (spamLog - hamLog);
+            maxWeight = Math.max(maxWeight, Math.abs(weights[slot]));
+        }
+        float scale = maxWeight > 0 ? maxWeight / 127f : 1f;
+
+        ByteBuffer out = ByteBuffer.allocate(NaiveBayesClassifier.HEADER_SIZE + 5 * capacity)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(NaiveBayesClassifier.MAGIC);
+        out.putInt(NaiveBayesClassifier.FORMAT_VERSION);
+        out.putInt(capacity);
+        out.putInt(FeatureHasher.NGRAM_SIZE);
+        out.putFloat((float) intercept);
+        out.putFloat(scale);
+        out.putFloat((float) defaultWeight);
+        out.putInt(size);
+        out.putFloat((float) slope);
+        for (int key : tableKeys) {
+            out.putInt(key);
+        }
+        for (float weight : weights) {
+            out.put((byte) Math.round(weight / scale));
+        }
+        out.flip();
+        return out;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.smsshield.analysis;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Blocklist of known spam sender numbers.
+ *
+ * Numbers are stored as E.164 digits packed into a sorted array of longs in
+ * a memory-mapped file, so millions of numbers cost 8 bytes each of page
+ * cache and a lookup is a binary search with no database access. The list
+ * is updated by shipping a new asset: the installed copy is replaced on the
+ * first lookup after an app update. Numbers a user blocks stay in the users
+ * table.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "SMPB"
+ *      4     4  format version
+ *      8     8  number count
+ *     16   8*n  numbers, sorted ascending (little-endian longs)
+ * </pre>
+ */
+public final class PhoneBlocklist {
+    private static final String TAG = "PhoneBlocklist";
+
+    /** Optional prebuilt list; when absent it is built from {@link #LIST_ASSET}. */
+    public static final String BLOCKLIST_ASSET = "phone_blocklist.bin";
+    /** Plain-text list of E.164 numbers, one per line. */
+    public static final String LIST_ASSET = "phone_blocklist.txt";
+
+    private static final int MAGIC = 0x42504d53; // "SMPB" read as a little-endian int
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    // E.164 allows at most 15 digits, which always fits in a long
+    private static final int MAX_DIGITS = 15;
+
+    private static volatile PhoneBlocklist INSTANCE;
+    private static volatile boolean unavailable;
+
+    private final LongBuffer numbers;
+
+    private PhoneBlocklist(ByteBuffer file) throws IOException {
+        if (file.limit() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IOException("Not a phone blocklist file");
+        }
+        if (file.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported blocklist version " + file.getInt(4));
+        }
+        long count = file.getLong(8);
+        if (count < 0 || file.limit() < HEADER_SIZE + count * 8) {
+            throw new IOException("Truncated or corrupt phone blocklist");
+        }
+        file.position(HEADER_SIZE);
+        this.numbers = file.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.numbers.limit((int) count);
+    }
+
+    /**
+     * Returns the process-wide blocklist, mapping it on first use. A missing or
+     * unreadable list is only reported once; later calls return null cheaply.
+     */
+    public static PhoneBlocklist getInstance(Context context) {
+        if (INSTANCE == null && !unavailable) {
+            synchronized (PhoneBlocklist.class) {
+                if (INSTANCE == null && !unavailable) {
+                    try {
+                        INSTANCE = load(context.getApplicationContext());
+                    } catch (IOException e) {
+                        unavailable = true;
+                        Log.e(TAG, "Unable to load phone blocklist", e);
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static PhoneBlocklist load(Context context) throws IOException {
+        File file = ModelFiles.getModelFile(context, BLOCKLIST_ASSET);
+        if (ModelFiles.isStale(context, file) && !ModelFiles.copyAsset(context, BLOCKLIST_ASSET, file)) {
+            try (Reader reader = new InputStreamReader(
+                    context.getAssets().open(LIST_ASSET), StandardCharsets.UTF_8)) {
+                ModelFiles.write(build(parse(reader)), file);
+            }
+            Log.d(TAG, "Built phone blocklist from " + LIST_ASSET);
+        }
+        return new PhoneBlocklist(ModelFiles.map(file));
+    }
+
+    /**
+     * Builds blocklist file contents. The numbers are sorted and de-duplicated.
+     */
+    public static ByteBuffer build(long[] numbers) {
+        long[] sorted = numbers.clone();
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] > 0 && (unique == 0 || sorted[i] != sorted[unique - 1])) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + unique * 8).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putLong(unique);
+        for (int i = 0; i < unique; i++) {
+            out.putLong(sorted[i]);
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Returns true if {@code sender} is a phone number on the blocklist.
+     * Alphanumeric sender ids are never blocked by this list.
+     */
+    public boolean isBlocked(String sender) {
+        long number = toE164(sender);
+        if (number <= 0) {
+            return false;
+        }
+        int low = 0;
+        int high = numbers.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = numbers.get(mid);
+            if (value < number) {
+                low = mid + 1;
+            } else if (value > number) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return numbers.limit();
+    }
+
+    /**
+     * Packs the digits of a phone number into a long, ignoring a leading '+'
+     * and common separators.
+     *
+     * @return The packed number, or -1 if {@code sender} is not a phone number
+     */
+    public static long toE164(String sender) {
+        if (sender == null) {
+            return -1;
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < sender.length(); i++) {
+            char c = sender.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            } else if (c == '+' && digits == 0) {
+                continue;
+            } else if (c != ' ' && c != '-' && c != '(' && c != ')' && c != '.') {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    private static long[] parse(Reader reader) throws IOException {
+        long[] values = new long[64];
+        int count = 0;
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            long number = toE164(line);
+            if (number > 0) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = number;
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.smsshield.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Bounded index of SimHash fingerprints for finding near-duplicate messages.
+ *
+ * Campaign messages differ only in names, amounts or tracking codes, so their
+ * 64-bit SimHash fingerprints are a few bits apart. Each fingerprint is split
+ * into {@link #BANDS} 16-bit bands; two fingerprints within
+ * {@link #MAX_DISTANCE} bits of each other must agree on at least one band,
+ * so a lookup only compares against entries sharing a band bucket.
+ *
+ * The index holds the most recent {@link #CAPACITY} fingerprints in a ring
+ * buffer; adding to a full index evicts the oldest entry.
+ */
+public final class SimHashIndex {
+
+    public static final int CAPACITY = 4096;
+    public static final int BANDS = 4;
+    public static final int MAX_DISTANCE = BANDS - 1;
+
+    // Messages with fewer words than this give unstable fingerprints
+    public static final int MIN_WORDS = 6;
+
+    private static final int BAND_BITS = Long.SIZE / BANDS;
+    private static final int BUCKET_COUNT = 4096;
+    private static final int EMPTY = -1;
+
+    private final long[] fingerprints = new long[CAPACITY];
+    // heads[band * BUCKET_COUNT + bucket] is the newest slot in that bucket
+    private final int[] heads = new int[BANDS * BUCKET_COUNT];
+    // next[band * CAPACITY + slot] chains slots within a bucket
+    private final int[] next = new int[BANDS * CAPACITY];
+    private int size;
+    private int cursor;
+
+    // Per-thread scratch space, so fingerprinting allocates nothing
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        final TextNormalizer normalizer = new TextNormalizer();
+        final FeatureHasher hasher = new FeatureHasher();
+        final int[] votes = new int[Long.SIZE];
+    }
+
+    public SimHashIndex() {
+        clear();
+    }
+
+    /**
+     * Computes the SimHash of the words in {@code text}. The text is run
+     * through {@link TextNormalizer} and digits are folded together by
+     * {@link FeatureHasher}, so look-alike characters, amounts and codes do
+     * not move it.
+     *
+     * @return The fingerprint, or 0 if the text is too short to fingerprint
+     */
+    public static long fingerprint(CharSequence text) {
+        Scratch scratch = SCRATCH.get();
+        FeatureHasher hasher = scratch.hasher;
+        hasher.extract(scratch.normalizer.normalize(text));
+        int words = hasher.getWordCount();
+        if (words < MIN_WORDS) {
+            return 0;
+        }
+
+        int[] votes = scratch.votes;
+        Arrays.fill(votes, 0);
+        for (int i = 0; i < words; i++) {
+            long hash = spread(hasher.getWordHash(i));
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                votes[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Adds a fingerprint, evicting the oldest one if the index is full.
+     * A zero fingerprint is ignored.
+     */
+    public synchronized void add(long fingerprint) {
+        if (fingerprint == 0) {
+            return;
+        }
+        int slot = cursor;
+        if (size == CAPACITY) {
+            unlink(slot);
+        } else {
+            size++;
+        }
+        fingerprints[slot] = fingerprint;
+        for (int band = 0; band < BANDS; band++) {
+            int head = band * BUCKET_COUNT + bucket(fingerprint, band);
+            next[band * CAPACITY + slot] = heads[head];
+            heads[head] = slot;
+        }
+        cursor = (cursor + 1) % CAPACITY;
+    }
+
+    /**
+     * Returns true if a fingerprint within {@link #MAX_DISTANCE} bits of
+     * {@code fingerprint} is in the index.
+     */
+    public synchronized boolean containsNear(long fingerprint) {
+        if (fingerprint == 0) {
+            return false;
+        }
+        for (int band = 0; band < BANDS; band++) {
+            int slot = heads[band * BUCKET_COUNT + bucket(fingerprint, band)];
+            while (slot != EMPTY) {
+                if (Long.bitCount(fingerprints[slot] ^ fingerprint) <= MAX_DISTANCE) {
+                    return true;
+                }
+                slot = next[band * CAPACITY + slot];
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(heads, EMPTY);
+        Arrays.fill(next, EMPTY);
+        size = 0;
+        cursor = 0;
+    }
+
+    private void unlink(int slot) {
+        long old = fingerprints[slot];
+        for (int band = 0; band < BANDS; band++) {
+            int head = band * BUCKET_COUNT + bucket(old, band);
+            int previous = EMPTY;
+            int current = heads[head];
+            while (current != EMPTY && current != slot) {
+                previous = current;
+                current = next[band * CAPACITY + current];
+            }
+            if (current == EMPTY) {
+                continue;
+            }
+            int following = next[band * CAPACITY + slot];
+            if (previous == EMPTY) {
+                heads[head] = following;
+            } else {
+                next[band * CAPACITY + previous] = following;
+            }
+            next[band * CAPACITY + slot] = EMPTY;
+        }
+    }
+
+    private static int bucket(long fingerprint, int band) {
+        int value = (int) (fingerprint >>> (band * BAND_BITS)) & 0xffff;
+        return value & (BUCKET_COUNT - 1);
+    }
+
+    // SplitMix64 finalizer, widening a 32-bit feature hash to 64 well-mixed bits
+    private static long spread(int hash) {
+        long z = hash * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
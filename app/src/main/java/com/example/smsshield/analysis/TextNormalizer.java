@@ -0,0 +1,256 @@
+package com.example.smsshield.analysis;
+
+import java.text.Normalizer;
+
+/**
+ * Folds message text into a canonical form before it is matched or hashed.
+ *
+ * Spam dodges keyword lists with look-alike characters, so in a single pass
+ * the normalizer:
+ * <ul>
+ *   <li>lowercases ASCII letters and folds accented Latin letters to their base letter,</li>
+ *   <li>maps Cyrillic and Greek homoglyphs, full-width forms and mathematical
+ *       alphanumerics to the ASCII letters they imitate,</li>
+ *   <li>drops zero-width characters, soft hyphens and combining marks,</li>
+ *   <li>turns Unicode spaces into a plain space,</li>
+ *   <li>reads symbols and digits used as letters ("fr€e", "p4ssw0rd") as
+ *       letters when they sit between two letters.</li>
+ * </ul>
+ * The result is kept in a reused buffer and exposed through this object as a
+ * {@link CharSequence}, so normalizing allocates nothing once the buffer fits
+ * the message. An instance is not thread-safe; give each thread its own.
+ */
+public final class TextNormalizer implements CharSequence {
+
+    // Marks characters that are dropped from the output
+    private static final char STRIP = '\uffff';
+
+    // Fold table for U+0000..U+052F, which covers Latin, Greek and Cyrillic
+    private static final int TABLE_SIZE = 0x530;
+    private static final char[] TABLE = buildTable();
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    private int length;
+
+    /**
+     * Normalizes {@code text}, replacing the result of any previous call.
+     *
+     * @return This normalizer, which now reads as the normalized text
+     */
+    public TextNormalizer normalize(CharSequence text) {
+        length = 0;
+        if (text == null) {
+            return this;
+        }
+        int inputLength = text.length();
+        if (buffer.length < inputLength) {
+            buffer = new char[Math.max(inputLength, buffer.length * 2)];
+        }
+
+        for (int i = 0; i < inputLength; i++) {
+            char c = text.charAt(i);
+            char folded;
+            if (Character.isHighSurrogate(c) && i + 1 < inputLength
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                folded = foldSupplementary(Character.toCodePoint(c, text.charAt(i + 1)));
+                if (folded == 0) {
+                    // Not a character we fold, so keep the pair intact
+                    buffer[length++] = c;
+                    buffer[length++] = text.charAt(++i);
+                    continue;
+                }
+                i++;
+            } else {
+                folded = fold(c);
+            }
+            if (folded == STRIP) {
+                continue;
+            }
+
+            char letter = substitute(folded);
+            if (letter != 0 && length > 0 && isAsciiLetter(buffer[length - 1])
+                    && isAsciiLetter(peekLetter(text, i + 1, inputLength))) {
+                folded = letter;
+            }
+            buffer[length++] = folded;
+        }
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return buffer[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Returns the normalized form of {@code text} as a new string.
+     */
+    public static String normalizeToString(CharSequence text) {
+        return new TextNormalizer().normalize(text).toString();
+    }
+
+    private static char fold(char c) {
+        if (c < TABLE_SIZE) {
+            return TABLE[c];
+        }
+        // Zero-width spaces and joiners, direction marks, word joiners and the BOM
+        if ((c >= '\u200b' && c <= '\u200f') || (c >= '\u2060' && c <= '\u2064') || c == '\ufeff') {
+            return STRIP;
+        }
+        // Combining mark blocks outside the table
+        if ((c >= '\u1ab0' && c <= '\u1aff') || (c >= '\u1dc0' && c <= '\u1dff')
+                || (c >= '\u20d0' && c <= '\u20ff') || (c >= '\ufe20' && c <= '\ufe2f')) {
+            return STRIP;
+        }
+        if ((c >= '\u2000' && c <= '\u200a') || c == '\u202f' || c == '\u205f' || c == '\u3000') {
+            return ' ';
+        }
+        // Full-width ASCII
+        if (c >= '\uff01' && c <= '\uff5e') {
+            return TABLE[c - 0xfee0];
+        }
+        return c;
+    }
+
+    // Mathematical alphanumeric symbols (bold, italic, script...) imitate ASCII
+    private static char foldSupplementary(int codePoint) {
+        if (codePoint >= 0x1d400 && codePoint <= 0x1d6a3) {
+            int index = (codePoint - 0x1d400) % 52;
+            return (char) ('a' + index % 26);
+        }
+        if (codePoint >= 0x1d7ce && codePoint <= 0x1d7ff) {
+            return (char) ('0' + (codePoint - 0x1d7ce) % 10);
+        }
+        // Tag characters are invisible
+        if (codePoint >= 0xe0000 && codePoint <= 0xe007f) {
+            return STRIP;
+        }
+        return 0;
+    }
+
+    // The letter a digit or symbol stands for when used inside a word, or 0.
+    // '@' is left alone so email addresses still read as email addresses.
+    private static char substitute(char c) {
+        switch (c) {
+            case '0': return 'o';
+            case '1': return 'i';
+            case '3': return 'e';
+            case '4': return 'a';
+            case '5': return 's';
+            case '7': return 't';
+            case '$': return 's';
+            case '!': return 'i';
+            case '|': return 'l';
+            case '\u20ac': return 'e';
+            default: return 0;
+        }
+    }
+
+    // Folds the next character that is not dropped, without consuming it
+    private static char peekLetter(CharSequence text, int from, int inputLength) {
+        for (int i = from; i < inputLength; i++) {
+            char c = text.charAt(i);
+            char folded;
+            if (Character.isHighSurrogate(c) && i + 1 < inputLength) {
+                folded = foldSupplementary(Character.toCodePoint(c, text.charAt(i + 1)));
+            } else {
+                folded = fold(c);
+            }
+            if (folded != STRIP) {
+                return folded;
+            }
+        }
+        return ' ';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static char[] buildTable() {
+        char[] table = new char[TABLE_SIZE];
+        for (char c = 0; c < TABLE_SIZE; c++) {
+            table[c] = c;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            table[c] = (char) (c + ('a' - 'A'));
+        }
+
+        // Accented Latin letters fold to their base letter
+        for (char c = '\u00c0'; c <= '\u024f'; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            if (base < 128 && Character.isLetter(base)) {
+                table[c] = Character.toLowerCase(base);
+            }
+        }
+        map(table, "\u00d8\u00f8", 'o');
+        map(table, "\u0110\u0111", 'd');
+        map(table, "\u0141\u0142", 'l');
+        map(table, "\u0131", 'i');
+        table['\u017f'] = 's';
+        table['\u00df'] = 's';
+
+        // Greek and Cyrillic letters that look like Latin ones
+        map(table, "\u0391\u03b1\u0410\u0430", 'a');
+        map(table, "\u0392\u03b2\u0412\u042c\u044c", 'b');
+        map(table, "\u0421\u0441\u03f2", 'c');
+        map(table, "\u0501", 'd');
+        map(table, "\u0395\u03b5\u0415\u0435\u0401\u0451", 'e');
+        map(table, "\u041d\u043d\u0397", 'h');
+        map(table, "\u0399\u03b9\u0406\u0456\u0407\u0457", 'i');
+        map(table, "\u0408\u0458\u03f3", 'j');
+        map(table, "\u039a\u03ba\u041a\u043a", 'k');
+        map(table, "\u04c0\u04cf", 'l');
+        map(table, "\u039c\u041c\u043c", 'm');
+        map(table, "\u039d\u03b7", 'n');
+        map(table, "\u039f\u03bf\u041e\u043e\u03c3", 'o');
+        map(table, "\u03a1\u03c1\u0420\u0440", 'p');
+        map(table, "\u051b", 'q');
+        map(table, "\u0405\u0455", 's');
+        map(table, "\u03a4\u03c4\u0422\u0442", 't');
+        map(table, "\u03c5\u03bc", 'u');
+        map(table, "\u03bd\u0474\u0475", 'v');
+        map(table, "\u051d\u03c9\u0461", 'w');
+        map(table, "\u03a7\u03c7\u0425\u0445", 'x');
+        map(table, "\u03a5\u0423\u0443\u04ae\u04af", 'y');
+        map(table, "\u0396", 'z');
+
+        // Soft hyphen, combining marks and the grapheme joiner are invisible
+        table['\u00ad'] = STRIP;
+        for (char c = '\u0300'; c <= '\u036f'; c++) {
+            table[c] = STRIP;
+        }
+        for (char c = '\u0483'; c <= '\u0489'; c++) {
+            table[c] = STRIP;
+        }
+        table['\u00a0'] = ' ';
+        return table;
+    }
+
+    private static void map(char[] table, String from, char to) {
+        for (int i = 0; i < from.length(); i++) {
+            table[from.charAt(i)] = to;
+        }
+    }
+}
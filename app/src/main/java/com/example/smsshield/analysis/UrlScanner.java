@@ -0,0 +1,232 @@
+package com.example.smsshield.analysis;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Single-pass extractor for URLs and bare host names in message text.
+ *
+ * Hits are reported as offsets into the scanned text rather than substrings,
+ * so a scan allocates nothing once the internal arrays have grown to fit the
+ * message. An instance keeps the results of the last scan and is not
+ * thread-safe; give each thread its own scanner.
+ */
+public final class UrlScanner {
+
+    /** The host was preceded by an {@code http://} or {@code https://} scheme. */
+    public static final int FLAG_SCHEME = 1;
+    /** The host was written with a {@code www.} prefix, which is not part of the reported range. */
+    public static final int FLAG_WWW = 1 << 1;
+    /** The host is a known link-shortening service or one of its subdomains. */
+    public static final int FLAG_SHORTENER = 1 << 2;
+
+    private static final String[] SCHEMES = {"https://", "http://"};
+    private static final String WWW_PREFIX = "www.";
+    private static final String[] SHORTENER_HOSTS = {
+        "bit.ly", "tinyurl.com", "t.co", "goo.gl", "ow.ly", "is.gd", "buff.ly",
+        "cutt.ly", "rb.gy", "shorturl.at", "tiny.cc", "t.ly", "rebrand.ly", "s.id"
+    };
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] hostStarts = new int[INITIAL_CAPACITY];
+    private int[] hostEnds = new int[INITIAL_CAPACITY];
+    private int[] hitFlags = new int[INITIAL_CAPACITY];
+    private int count;
+    private int combinedFlags;
+
+    /**
+     * Scans {@code text} and replaces the results of any previous scan.
+     *
+     * @return The number of hosts found
+     */
+    public int scan(CharSequence text) {
+        count = 0;
+        combinedFlags = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!isHostChar(text.charAt(i)) || !mayStartHost(text, i)) {
+                i++;
+                continue;
+            }
+
+            int flags = 0;
+            int hostStart = i;
+            for (String scheme : SCHEMES) {
+                if (regionMatches(text, i, scheme)) {
+                    flags |= FLAG_SCHEME;
+                    hostStart = i + scheme.length();
+                    break;
+                }
+            }
+            if (regionMatches(text, hostStart, WWW_PREFIX)) {
+                flags |= FLAG_WWW;
+                hostStart += WWW_PREFIX.length();
+            }
+
+            // Consume labels and dots
+            int j = hostStart;
+            while (j < length && (text.charAt(j) == '.' || isHostChar(text.charAt(j)))) {
+                j++;
+            }
+
+            // Sentence punctuation after a bare host is not part of it
+            int hostEnd = j;
+            while (hostEnd > hostStart && (text.charAt(hostEnd - 1) == '.' || text.charAt(hostEnd - 1) == '-')) {
+                hostEnd--;
+            }
+            int lastDot = lastIndexOfDot(text, hostStart, hostEnd);
+            // Just past the last run of dots, where a host may still begin ("now...evil.com")
+            int afterEmptyLabel = -1;
+            for (int k = hostStart + 1; k < hostEnd; k++) {
+                if (text.charAt(k) == '.' && text.charAt(k - 1) == '.') {
+                    afterEmptyLabel = k + 1;
+                }
+            }
+            boolean emptyLabel = afterEmptyLabel >= 0 || (hostEnd > hostStart && text.charAt(hostStart) == '.');
+
+            boolean valid = hostEnd > hostStart && !emptyLabel;
+            if (valid && (flags & FLAG_SCHEME) == 0) {
+                valid = lastDot > hostStart && isTopLevelDomain(text, lastDot + 1, hostEnd);
+            }
+
+            if (valid) {
+                if (isShortener(text, hostStart, hostEnd)) {
+                    flags |= FLAG_SHORTENER;
+                }
+                addHit(hostStart, hostEnd, flags);
+                // Skip the rest of the URL so its path is not scanned for hosts
+                while (j < length && !Character.isWhitespace(text.charAt(j))) {
+                    j++;
+                }
+            } else if (afterEmptyLabel >= 0) {
+                i = afterEmptyLabel;
+                continue;
+            }
+            i = Math.max(j, i + 1);
+        }
+        return count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getHostStart(int index) {
+        return hostStarts[index];
+    }
+
+    public int getHostEnd(int index) {
+        return hostEnds[index];
+    }
+
+    public int getFlags(int index) {
+        return hitFlags[index];
+    }
+
+    /**
+     * @return The union of the flags of every host found by the last scan
+     */
+    public int getCombinedFlags() {
+        return combinedFlags;
+    }
+
+    /**
+     * Copies a host out of the scanned text. This allocates, so it is meant
+     * for logging and tests rather than the classification path.
+     */
+    public String getHost(CharSequence text, int index) {
+        return text.subSequence(hostStarts[index], hostEnds[index]).toString().toLowerCase(Locale.ROOT);
+    }
+
+    private void addHit(int start, int end, int flags) {
+        if (count == hostStarts.length) {
+            int capacity = count * 2;
+            hostStarts = Arrays.copyOf(hostStarts, capacity);
+            hostEnds = Arrays.copyOf(hostEnds, capacity);
+            hitFlags = Arrays.copyOf(hitFlags, capacity);
+        }
+        hostStarts[count] = start;
+        hostEnds[count] = end;
+        hitFlags[count] = flags;
+        combinedFlags |= flags;
+        count++;
+    }
+
+    private static boolean isHostChar(char c) {
+        return c == '-' || Character.isLetterOrDigit(c);
+    }
+
+    // A host may begin at the start of the text, after a boundary character or
+    // after a run of two or more dots, which cannot be inside a host name.
+    private static boolean mayStartHost(CharSequence text, int i) {
+        if (i == 0 || isBoundary(text.charAt(i - 1))) {
+            return true;
+        }
+        return i > 1 && text.charAt(i - 1) == '.' && text.charAt(i - 2) == '.';
+    }
+
+    // Characters after which a new host may begin. Hosts glued to '@' (email
+    // addresses) or other host characters are not scanned. '=' and '/' let a
+    // link hidden in a parameter ("url=http://...") or after another path be
+    // found; the path of a URL that was found is skipped as a whole.
+    private static boolean isBoundary(char c) {
+        if (Character.isWhitespace(c)) {
+            return true;
+        }
+        switch (c) {
+            case '(': case '[': case '{': case '<': case '"': case '\'':
+            case ':': case ',': case ';': case '!': case '?': case '*': case '|':
+            case '=': case '/':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isTopLevelDomain(CharSequence text, int start, int end) {
+        if (end - start < 2) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isLetter(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isShortener(CharSequence text, int start, int end) {
+        for (String host : SHORTENER_HOSTS) {
+            int hostStart = end - host.length();
+            // The whole host, or its last labels when a word ran into it ("prize.bit.ly")
+            if ((hostStart == start || (hostStart > start && text.charAt(hostStart - 1) == '.'))
+                    && regionMatches(text, hostStart, host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lastIndexOfDot(CharSequence text, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (text.charAt(i) == '.') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, String lowerCasePrefix) {
+        if (offset + lowerCasePrefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCasePrefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(offset + i)) != lowerCasePrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.smsshield.api;
+
+import android.util.Log;
+
+import com.example.smsshield.database.entities.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-flight registry for analyses in progress.
+ *
+ * The same message can be submitted at once by the SMS receiver, the message
+ * list and the detail screen, and campaign copies of one body can arrive
+ * together. The first submission starts a flight; later submissions for the
+ * same message id or the same content key attach to it and receive its
+ * result instead of starting their own request.
+ *
+ * A submission that needs its answer sooner than the running flight's
+ * deadline, such as a live message whose body is already queued in a
+ * backfill batch, starts a flight of its own instead and takes over the
+ * registrations, so it is not held to the slower flight's priority. The
+ * slower flight still lands and reports to the callers that joined it.
+ */
+final class AnalysisFlights {
+    private static final String TAG = "AnalysisFlights";
+
+    /**
+     * Writes a verdict to a message that shared a flight without starting it.
+     */
+    interface VerdictWriter {
+        void apply(Message message, boolean isSpam);
+    }
+
+    private final Map<Long, Flight> byMessageId = new HashMap<>();
+    private final Map<Long, Flight> byContentKey = new HashMap<>();
+
+    /**
+     * Attaches {@code callback} to the flight for this message or body, or
+     * starts a new one.
+     *
+     * @param deadlineAt When the caller needs its answer, or
+     *                   {@link Long#MAX_VALUE} if it has no deadline yet
+     * @return The new flight, which the caller must run and complete through
+     *         its callback methods, or null if the request joined a flight
+     *         that is already running
+     */
+    synchronized Flight join(Message message, long contentKey, long deadlineAt,
+                             SmsAnalyzerService.AnalysisCallback callback, VerdictWriter writer) {
+        Flight flight = byMessageId.get(message.getId());
+        boolean sameRow = flight != null;
+        if (flight == null) {
+            flight = byContentKey.get(contentKey);
+        }
+        if (flight != null && flight.deadlineAt <= deadlineAt) {
+            flight.callbacks.add(callback);
+            if (sameRow) {
+                // Same row: the running flight writes its status, so only the callback is added
+                flight.sameMessage.add(message);
+                Log.d(TAG, "Joined flight for message " + message.getId());
+            } else {
+                // Another row with the same body: it needs its own status write when the flight lands
+                flight.sameContent.add(message);
+                byMessageId.put(message.getId(), flight);
+                Log.d(TAG, "Message " + message.getId() + " joined flight for message " + flight.messageId);
+            }
+            return null;
+        }
+        if (flight != null) {
+            Log.d(TAG, "Message " + message.getId() + " needs an answer before flight for message "
+                    + flight.messageId + ", starting its own");
+        }
+        flight = new Flight(message.getId(), contentKey, deadlineAt, writer);
+        flight.callbacks.add(callback);
+        byMessageId.put(message.getId(), flight);
+        byContentKey.put(contentKey, flight);
+        return flight;
+    }
+
+    synchronized int size() {
+        return byContentKey.size();
+    }
+
+    private synchronized void land(Flight flight) {
+        // A flight superseded by a more urgent one no longer owns its keys
+        byContentKey.remove(flight.contentKey, flight);
+        byMessageId.values().removeIf(registered -> registered == flight);
+    }
+
+    /**
+     * One analysis in progress. Completing it fans the result out to every
+     * callback that joined.
+     */
+    final class Flight implements SmsAnalyzerService.AnalysisCallback {
+        final long messageId;
+        final long contentKey;
+        final long deadlineAt;
+        private final VerdictWriter writer;
+        // Guarded by the enclosing registry's lock until the flight lands
+        private final List<SmsAnalyzerService.AnalysisCallback> callbacks = new ArrayList<>();
+        private final List<Message> sameMessage = new ArrayList<>();
+        private final List<Message> sameContent = new ArrayList<>();
+
+        Flight(long messageId, long contentKey, long deadlineAt, VerdictWriter writer) {
+            this.messageId = messageId;
+            this.contentKey = contentKey;
+            this.deadlineAt = deadlineAt;
+            this.writer = writer;
+        }
+
+        @Override
+        public void onResult(boolean isSpam, String resultMessage) {
+            report(isSpam, resultMessage, false);
+        }
+
+        @Override
+        public void onFallback(boolean isSpam, String resultMessage) {
+            report(isSpam, resultMessage, true);
+        }
+
+        private void report(boolean isSpam, String resultMessage, boolean fallback) {
+            List<SmsAnalyzerService.AnalysisCallback> joined;
+            List<Message> copies;
+            List<Message> duplicates;
+            synchronized (AnalysisFlights.this) {
+                land(this);
+                joined = new ArrayList<>(callbacks);
+                copies = new ArrayList<>(sameMessage);
+                duplicates = new ArrayList<>(sameContent);
+            }
+            String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
+            for (Message message : copies) {
+                message.setStatus(newStatus);
+            }
+            for (Message message : duplicates) {
+                writer.apply(message, isSpam);
+            }
+            for (SmsAnalyzerService.AnalysisCallback callback : joined) {
+                if (fallback) {
+                    callback.onFallback(isSpam, resultMessage);
+                } else {
+                    callback.onResult(isSpam, resultMessage);
+                }
+            }
+        }
+
+        @Override
+        public void onError(String error) {
+            List<SmsAnalyzerService.AnalysisCallback> joined;
+            synchronized (AnalysisFlights.this) {
+                land(this);
+                joined = new ArrayList<>(callbacks);
+            }
+            for (SmsAnalyzerService.AnalysisCallback callback : joined) {
+                callback.onError(error);
+            }
+        }
+    }
+}
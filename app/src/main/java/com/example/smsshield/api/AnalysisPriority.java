@@ -0,0 +1,29 @@
+package com.example.smsshield.api;
+
+/**
+ * How urgently an analysis is needed. Requests waiting for the backend are
+ * served from one lane per priority, each getting a share of the sends in
+ * proportion to its weight.
+ */
+public enum AnalysisPriority {
+    // The user asked for this check and is watching a spinner
+    INTERACTIVE(8),
+    // A message that just arrived through SmsReceiver
+    LIVE(4),
+    // Imported or queued messages checked in bulk
+    BACKFILL(1);
+
+    final int weight;
+
+    AnalysisPriority(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Whether requests of this priority may borrow the slots held back for
+     * messages someone is waiting on.
+     */
+    boolean isUrgent() {
+        return this != BACKFILL;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.example.smsshield.database.SmsShieldDatabase;
+import com.example.smsshield.database.dao.AnalysisQueueDao;
+import com.example.smsshield.database.entities.QueuedAnalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of messages waiting for a backend analysis, stored in the
+ * {@code analysis_queue} table.
+ *
+ * Messages are claimed in batches under a lease: a claimed message is
+ * invisible to other callers until it is {@linkplain #complete completed},
+ * {@linkplain #retryLater handed back} or its lease runs out, so work lost
+ * to a killed process is picked up again. Enqueueing returns at once; the
+ * other methods touch the database and must run off the main thread.
+ */
+public class AnalysisQueue {
+    private static final String TAG = "AnalysisQueue";
+
+    // Where the queue lived before it moved into Room
+    private static final String LEGACY_PREFS = "message_queue_prefs";
+    private static final String LEGACY_KEY = "message_ids";
+
+    // Long enough for a backfill batch to run out its deadline and report back
+    private static final long LEASE_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long RETRY_BASE_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_MAX_DELAY_MS = TimeUnit.HOURS.toMillis(6);
+    private static final int MAX_ATTEMPTS = 8;
+    // SQLite allows 999 bound variables per statement
+    private static final int MAX_IDS_PER_STATEMENT = 500;
+
+    private static volatile AnalysisQueue INSTANCE;
+
+    private final AnalysisQueueDao analysisQueueDao;
+
+    private AnalysisQueue(Context context) {
+        analysisQueueDao = SmsShieldDatabase.getInstance(context).analysisQueueDao();
+        SmsShieldDatabase.databaseWriteExecutor.execute(() -> migrateLegacyQueue(context));
+    }
+
+    public static AnalysisQueue getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (AnalysisQueue.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AnalysisQueue(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Drops the process-wide queue, so the next {@link #getInstance} uses
+     * whatever database is current.
+     */
+    @VisibleForTesting
+    public static void resetForTesting() {
+        synchronized (AnalysisQueue.class) {
+            INSTANCE = null;
+        }
+    }
+
+    public void enqueue(long messageId, AnalysisPriority priority, Runnable onQueued) {
+        enqueue(Collections.singletonList(messageId), priority, onQueued);
+    }
+
+    /**
+     * Queues messages in the background. Messages that are already queued
+     * keep their place, but move up to {@code priority} if it is more urgent.
+     *
+     * @param onQueued Run on the background thread once the messages are in
+     *                 the table, or null
+     */
+    public void enqueue(List<Long> messageIds, AnalysisPriority priority, Runnable onQueued) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        List<Long> copy = new ArrayList<>(messageIds);
+        SmsShieldDatabase.databaseWriteExecutor.execute(() -> {
+            long now = System.currentTimeMillis();
+            for (List<Long> chunk : chunks(copy)) {
+                analysisQueueDao.enqueue(chunk, priority.ordinal(), now);
+            }
+            Log.d(TAG, "Queued " + copy.size() + " messages at " + priority);
+            if (onQueued != null) {
+                onQueued.run();
+            }
+        });
+    }
+
+    /**
+     * Leases up to {@code limit} messages that are due, most urgent first.
+     * Returns an empty list when nothing is due.
+     */
+    public List<QueuedAnalysis> claim(int limit) {
+        long now = System.currentTimeMillis();
+        return analysisQueueDao.claim(AnalysisPriority.values().length, now, now + LEASE_MS,
+                Math.min(limit, MAX_IDS_PER_STATEMENT));
+    }
+
+    /**
+     * Removes claimed messages that have been analyzed.
+     */
+    public void complete(List<Long> messageIds) {
+        for (List<Long> chunk : chunks(messageIds)) {
+            analysisQueueDao.delete(chunk);
+        }
+    }
+
+    /**
+     * Hands claimed messages back with an exponential backoff delay. Messages
+     * that have failed {@value #MAX_ATTEMPTS} times are dropped.
+     */
+    public void retryLater(List<Long> messageIds) {
+        long now = System.currentTimeMillis();
+        for (List<Long> chunk : chunks(messageIds)) {
+            int dropped = analysisQueueDao.retryLater(chunk, now, RETRY_BASE_DELAY_MS,
+                    RETRY_MAX_DELAY_MS, MAX_ATTEMPTS);
+            if (dropped > 0) {
+                Log.w(TAG, "Dropped " + dropped + " messages after " + MAX_ATTEMPTS + " attempts");
+            }
+        }
+    }
+
+    public int size() {
+        return analysisQueueDao.count();
+    }
+
+    private void migrateLegacyQueue(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        Set<String> legacyIds = prefs.getStringSet(LEGACY_KEY, null);
+        if (legacyIds == null) {
+            return;
+        }
+        List<Long> messageIds = new ArrayList<>(legacyIds.size());
+        for (String id : legacyIds) {
+            try {
+                messageIds.add(Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Skipping malformed queued id " + id);
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (List<Long> chunk : chunks(messageIds)) {
+            analysisQueueDao.enqueue(chunk, AnalysisPriority.BACKFILL.ordinal(), now);
+        }
+        prefs.edit().remove(LEGACY_KEY).apply();
+        Log.d(TAG, "Moved " + messageIds.size() + " queued messages out of shared preferences");
+    }
+
+    private static List<List<Long>> chunks(List<Long> messageIds) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int start = 0; start < messageIds.size(); start += MAX_IDS_PER_STATEMENT) {
+            chunks.add(messageIds.subList(start, Math.min(messageIds.size(), start + MAX_IDS_PER_STATEMENT)));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.example.smsshield.database.entities.Message;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request to the analysis backend, a POST unless created otherwise, whose
+ * JSON response is decoded by a streaming {@link JsonReader} on the network
+ * thread, straight from the response bytes.
+ *
+ * @param <T> The decoded response type
+ */
+final class AnalysisRequest<T> extends Request<T> {
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    // Wait after a 429 that does not say how long to wait
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+
+    /**
+     * Decodes a response body.
+     */
+    interface ResponseParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Reported for a request that never reached the backend, so its outcome
+     * says nothing about the backend's health.
+     */
+    static class NotSentError extends VolleyError {
+        NotSentError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reported for a request whose deadline passed before it could be sent,
+     * such as the tail of a long import.
+     */
+    static final class ExpiredError extends NotSentError {
+        ExpiredError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reported for a request that was never sent because the backend asked
+     * us to wait longer than the request's deadline allows.
+     */
+    static final class ThrottledError extends NotSentError {
+        ThrottledError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Decides what to do with a request the backend refused with 429.
+     */
+    interface ThrottleHandler {
+        /**
+         * @param retryAfterMs How long the backend asked us to wait
+         * @return Whether the request will be sent again, in which case the
+         *         error is not delivered
+         */
+        boolean onThrottled(AnalysisRequest<?> request, long retryAfterMs);
+    }
+
+    private final Object lock = new Object();
+    private final byte[] body;
+    private final ResponseParser<T> parser;
+    // Guarded by lock; cleared on cancel so a cancelled request cannot deliver
+    private Response.Listener<T> listener;
+    // Guarded by lock; aborts the exchange in a transport that supports it
+    private Runnable cancelAction;
+
+    // Set by AnalyzerClient when a backfill request starts waiting for a token
+    volatile long queuedAtMs;
+    // Set by AnalyzerClient for warm-up pings, which bypass the limits and latency metrics
+    volatile boolean warmUp;
+    // Set by AnalyzerClient when the concurrency limiter lets the request go out
+    volatile long sentAtMs;
+    // Set on the network thread when the answer or final error arrives, before any listener
+    // runs, so time spent handling the verdict does not count as backend latency
+    volatile long answeredAtMs;
+    // Whether the error delivered for this request means the backend is unhealthy
+    volatile boolean backendFailed;
+    // Set by AnalyzerClient; the lane the request waits in and how 429s are handled
+    volatile AnalysisPriority priority;
+    volatile ThrottleHandler throttleHandler;
+    // Whether the request was refused with 429 and is to be sent again rather than finished
+    volatile boolean resendPending;
+    volatile int throttledCount;
+
+    AnalysisRequest(String url, byte[] body, ResponseParser<T> parser,
+                    Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        this(Method.POST, url, body, parser, listener, errorListener);
+    }
+
+    /**
+     * Creates a request with another HTTP method, such as a GET without a body.
+     */
+    AnalysisRequest(int method, String url, byte[] body, ResponseParser<T> parser,
+                    Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        super(method, url, errorListener);
+        this.body = body;
+        this.parser = parser;
+        this.listener = listener;
+        // Each POST is distinct; going through the cache dispatcher would serialize same-URL requests
+        setShouldCache(false);
+    }
+
+    /**
+     * Builds the request body for a single message: {@code {"message", "sender"}}.
+     */
+    static byte[] singleBody(Message message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("message").value(message.getContent());
+            // Add sender phone number for better analysis
+            writer.name("sender").value(message.getPhoneNumber());
+            writer.endObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds the request body for a batch: an array of {@code {"id", "message", "sender"}}.
+     */
+    static byte[] batchBody(List<Message> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (Message message : messages) {
+                writer.beginObject();
+                writer.name("id").value(message.getId());
+                writer.name("message").value(message.getContent());
+                writer.name("sender").value(message.getPhoneNumber());
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Whether an error says the backend is unhealthy: unreachable, timed out,
+     * overloaded or failing. Client errors and unreadable responses still
+     * mean the backend answered.
+     */
+    static boolean isBackendFailure(VolleyError error) {
+        if (error instanceof ParseError || error instanceof NotSentError) {
+            return false;
+        }
+        if (error.networkResponse == null) {
+            return true;
+        }
+        int status = error.networkResponse.statusCode;
+        return status >= 500 || status == 429;
+    }
+
+    /**
+     * Whether the request got as far as the backend, so its outcome should
+     * count towards the circuit breaker.
+     */
+    static boolean reachedBackend(VolleyError error) {
+        return !(error instanceof NotSentError);
+    }
+
+    static boolean isThrottled(VolleyError error) {
+        return error.networkResponse != null && error.networkResponse.statusCode == 429;
+    }
+
+    /**
+     * Reads the {@code Retry-After} header of a 429, given either in seconds
+     * or as an HTTP date, or returns {@code defaultMs} if there is none.
+     */
+    static long retryAfterMs(VolleyError error, long defaultMs) {
+        Map<String, String> headers = error.networkResponse != null ? error.networkResponse.headers : null;
+        String value = headers != null ? headers.get("Retry-After") : null;
+        if (value == null) {
+            return defaultMs;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, so an HTTP date
+        }
+        long retryAt = HttpHeaderParser.parseDateAsEpoch(value);
+        if (retryAt <= 0) {
+            return defaultMs;
+        }
+        return Math.max(0, retryAt - System.currentTimeMillis());
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] getBody() {
+        return body;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        answeredAtMs = SystemClock.elapsedRealtime();
+        try {
+            String charset = HttpHeaderParser.parseCharset(response.headers, "UTF-8");
+            try (JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(response.data), charset))) {
+                T result = parser.parse(reader);
+                return Response.success(result, HttpHeaderParser.parseCacheHeaders(response));
+            }
+        } catch (UnsupportedEncodingException e) {
+            return Response.error(new ParseError(e));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // Gson reports malformed or unexpected JSON with these
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected VolleyError parseNetworkError(VolleyError volleyError) {
+        answeredAtMs = SystemClock.elapsedRealtime();
+        return volleyError;
+    }
+
+    /**
+     * Sets what to run when the request is cancelled while being sent, such
+     * as aborting the HTTP call. Runs at once if it is already cancelled.
+     */
+    void setCancelAction(Runnable action) {
+        synchronized (lock) {
+            if (!isCanceled()) {
+                cancelAction = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        Runnable action;
+        synchronized (lock) {
+            listener = null;
+            action = cancelAction;
+            cancelAction = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        backendFailed = isBackendFailure(error);
+        ThrottleHandler handler = throttleHandler;
+        if (isThrottled(error) && handler != null
+                && handler.onThrottled(this, retryAfterMs(error, DEFAULT_RETRY_AFTER_MS))) {
+            // Sent again once the backend allows; the listener only hears the final outcome
+            resendPending = true;
+            return;
+        }
+        super.deliverError(error);
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        Response.Listener<T> current;
+        synchronized (lock) {
+            current = listener;
+        }
+        if (current != null) {
+            current.onResponse(response);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.smsshield.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming decoder for analysis backend responses.
+ *
+ * The backend has answered in several shapes over time, all of which are
+ * read in a single pass without building a DOM:
+ * <pre>
+ * {"is_spam": true, "message": "..."}
+ * {"result": "Spam"}
+ * {"result": {"is_spam": true, "message": "..."}}
+ * </pre>
+ * Batch responses are an array of these objects, each carrying the
+ * {@code id} of the message it answers. A numeric {@code score},
+ * {@code spam_score} or {@code confidence} is kept when present.
+ */
+final class AnalysisResponseParser {
+
+    private AnalysisResponseParser() {
+    }
+
+    /**
+     * Reads one verdict object into {@code out}, replacing its contents.
+     */
+    static void readVerdict(JsonReader reader, AnalysisResult out) throws IOException {
+        out.reset();
+        // Top-level fields win over the nested "result" object, as they always have
+        int topSpam = -1;
+        String topMessage = null;
+        String resultString = null;
+        int nestedSpam = -1;
+        String nestedMessage = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    if (reader.peek() == JsonToken.NUMBER) {
+                        out.id = reader.nextLong();
+                        out.hasId = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "is_spam":
+                    topSpam = readFlag(reader);
+                    break;
+                case "message":
+                    topMessage = readString(reader);
+                    break;
+                case "result":
+                    JsonToken token = reader.peek();
+                    if (token == JsonToken.STRING) {
+                        resultString = reader.nextString();
+                    } else if (token == JsonToken.BOOLEAN) {
+                        nestedSpam = reader.nextBoolean() ? 1 : 0;
+                    } else if (token == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String name = reader.nextName();
+                            if ("is_spam".equals(name)) {
+                                nestedSpam = readFlag(reader);
+                            } else if ("message".equals(name)) {
+                                nestedMessage = readString(reader);
+                            } else if (isScoreField(name)) {
+                                readScore(reader, out);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "score":
+                case "spam_score":
+                case "confidence":
+                    readScore(reader, out);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (topSpam >= 0) {
+            out.spam = topSpam == 1;
+            out.hasVerdict = true;
+        } else if (resultString != null) {
+            // The result is a String like "Spam" or "spam"
+            String lower = resultString.toLowerCase(Locale.ROOT);
+            out.spam = lower.contains("spam");
+            out.hasVerdict = true;
+            out.resultMessage = "Message classified as: " + lower;
+        } else if (nestedSpam >= 0) {
+            out.spam = nestedSpam == 1;
+            out.hasVerdict = true;
+        }
+        if (topMessage != null) {
+            out.resultMessage = topMessage;
+        } else if (nestedMessage != null && resultString == null) {
+            out.resultMessage = nestedMessage;
+        }
+    }
+
+    /**
+     * Reads a single-message response.
+     */
+    static AnalysisResult readSingle(JsonReader reader) throws IOException {
+        AnalysisResult result = new AnalysisResult();
+        readVerdict(reader, result);
+        return result;
+    }
+
+    /**
+     * Reads a batch response: an array of verdict objects. Entries that are
+     * not objects are skipped.
+     */
+    static List<AnalysisResult> readBatch(JsonReader reader) throws IOException {
+        List<AnalysisResult> results = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            AnalysisResult result = new AnalysisResult();
+            readVerdict(reader, result);
+            results.add(result);
+        }
+        reader.endArray();
+        return results;
+    }
+
+    // 1 for true, 0 for false, -1 if the value is null or not a flag
+    private static int readFlag(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean() ? 1 : 0;
+        }
+        if (token == JsonToken.STRING) {
+            String value = reader.nextString();
+            if ("true".equalsIgnoreCase(value)) {
+                return 1;
+            }
+            return "false".equalsIgnoreCase(value) ? 0 : -1;
+        }
+        if (token == JsonToken.NUMBER) {
+            return reader.nextDouble() != 0 ? 1 : 0;
+        }
+        reader.skipValue();
+        return -1;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+            // Numbers and booleans are kept as their literal text
+            return token == JsonToken.BOOLEAN ? String.valueOf(reader.nextBoolean()) : reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static boolean isScoreField(String name) {
+        return "score".equals(name) || "spam_score".equals(name) || "confidence".equals(name);
+    }
+
+    private static void readScore(JsonReader reader, AnalysisResult out) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            out.score = (float) reader.nextDouble();
+        } else {
+            reader.skipValue();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.smsshield.api;
+
+/**
+ * Verdict decoded from the analysis backend for one message.
+ *
+ * Filled in by {@link AnalysisResponseParser}; an instance can be
+ * {@link #reset()} and filled again, so a parser working through a batch
+ * response does not need a fresh object per field.
+ */
+final class AnalysisResult {
+    static final String UNKNOWN_RESULT = "Unknown result";
+
+    long id;
+    boolean hasId;
+    boolean spam;
+    // False when the response carried no recognizable verdict and spam defaulted to false
+    boolean hasVerdict;
+    String resultMessage;
+    // Backend confidence between 0 and 1, or NaN if the response had none
+    float score = Float.NaN;
+
+    void reset() {
+        id = 0;
+        hasId = false;
+        spam = false;
+        hasVerdict = false;
+        resultMessage = null;
+        score = Float.NaN;
+    }
+
+    boolean isSpam() {
+        return spam;
+    }
+
+    String getResultMessage() {
+        return resultMessage != null ? resultMessage : UNKNOWN_RESULT;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalysisResult{" + (hasId ? "id=" + id + ", " : "")
+                + "spam=" + spam + (hasVerdict ? "" : " (default)")
+                + ", score=" + score + ", message=" + resultMessage + "}";
+    }
+}
@@ -0,0 +1,455 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+import com.example.smsshield.metrics.Counter;
+import com.example.smsshield.metrics.Histogram;
+import com.example.smsshield.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide network client for the analysis backend.
+ *
+ * Owns the one {@link AnalyzerTransport} that every {@link SmsAnalyzerService}
+ * sends through, so network threads are started once per process and
+ * connections to the backend are pooled and reused across analyses instead of
+ * being rebuilt for every message. Requests go over OkHttp, which also
+ * multiplexes them on one HTTP/2 connection where the backend supports it.
+ *
+ * Responses are delivered on a dedicated background executor rather than the
+ * main looper, because handling a verdict writes to Room. Listeners that
+ * touch the UI must post to the main thread themselves.
+ *
+ * The number of requests in flight is bounded by a {@link ConcurrencyLimiter}
+ * that adapts to the backend's round-trip latency. Requests over the limit
+ * wait in one lane per {@link AnalysisPriority}, served by weighted fair
+ * queuing, and live or interactive requests may use a reserved slot beyond
+ * the limit, so a new SMS is not stuck behind a bulk import.
+ *
+ * Before that, a {@link RateLimiter} spreads requests out to the rate the
+ * backend accepts. A request takes its token before it takes a concurrency
+ * slot, so waiting for the rate limit never holds a slot. Urgent requests may
+ * take tokens on credit; backfill waits in line until a token is free, so it
+ * never builds up a debt that a live message would have to wait behind. A
+ * request refused with 429 is not reported as an error while its deadline
+ * allows waiting out {@code Retry-After}: the limiter pauses for every caller
+ * and the request is queued again.
+ *
+ * Round trips are measured from sending until the transport has the answer,
+ * before listeners run, so writing a verdict to Room never counts as backend
+ * latency. They are kept separately for cold requests, sent after the
+ * connection has been idle long enough to be dropped, and warm ones, so the
+ * effect of keeping the backend warm shows in the tail latency.
+ */
+public final class AnalyzerClient {
+    private static final String TAG = "AnalyzerClient";
+
+    // Kept low for the free backend tier, which falls over under bursts
+    public static final double DEFAULT_RATE_PER_SECOND = 4;
+    public static final int DEFAULT_RATE_BURST = 8;
+
+    private static final int DELIVERY_THREADS = 2;
+
+    // Adaptive concurrency: start at 4 requests in flight and move between 1 and 8
+    private static final int INITIAL_CONCURRENCY = 4;
+    private static final int MIN_CONCURRENCY = 1;
+    private static final int MAX_CONCURRENCY = 8;
+    // A round trip over twice the fastest one seen means the backend is queueing
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.5;
+    // Extra requests in flight allowed for live and interactive analyses
+    private static final int URGENT_RESERVE = 1;
+    // A request refused this many times is reported as failed instead of queued again
+    private static final int MAX_THROTTLED = 3;
+    // The backend does not accept compressed request bodies yet
+    private static final boolean GZIP_REQUESTS = false;
+
+    // Idle connections are evicted from the pool after five minutes
+    private static final long COLD_IDLE_MS = 5 * 60 * 1000;
+    // Bodies under this share a round-trip baseline; each fourfold larger size gets its own
+    private static final int RTT_CLASS_MIN_BYTES = 1024;
+    private static final int LATENCY_SAMPLES = 128;
+
+    // Cumulative for the process, unlike the recent-sample windows below
+    private static final Histogram REMOTE_LATENCY = MetricsRegistry.getInstance().histogram("remote.latency_ms");
+    private static final Histogram COLD_LATENCY = MetricsRegistry.getInstance().histogram("remote.cold_latency_ms");
+    private static final Histogram WARM_LATENCY = MetricsRegistry.getInstance().histogram("remote.warm_latency_ms");
+    private static final Counter REMOTE_FAILURES = MetricsRegistry.getInstance().counter("remote.failures");
+    private static final Histogram RATE_LIMIT_WAIT = MetricsRegistry.getInstance().histogram("remote.rate_limit_wait_ms");
+    private static final Counter THROTTLED = MetricsRegistry.getInstance().counter("remote.throttled");
+    private static final Counter RATE_LIMITED = MetricsRegistry.getInstance().counter("remote.rate_limited");
+    private static final Counter EXPIRED = MetricsRegistry.getInstance().counter("remote.expired_before_send");
+
+    private static volatile AnalyzerClient INSTANCE;
+    // Guarded by AnalyzerClient.class; outlive the client so a restart keeps them
+    private static double ratePerSecond = DEFAULT_RATE_PER_SECOND;
+    private static int rateBurst = DEFAULT_RATE_BURST;
+
+    private final ExecutorService deliveryExecutor;
+    private final AnalyzerTransport transport;
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(INITIAL_CONCURRENCY,
+            MIN_CONCURRENCY, MAX_CONCURRENCY, LATENCY_TOLERANCE, BACKOFF_RATIO, URGENT_RESERVE);
+    private final RateLimiter rateLimiter = new RateLimiter(ratePerSecond, rateBurst);
+    // Holds urgent requests until the token they took on credit is due
+    private final ScheduledThreadPoolExecutor sendScheduler = new ScheduledThreadPoolExecutor(1);
+    // Backfill requests waiting for a free token, in order
+    private final ArrayDeque<AnalysisRequest<?>> backfillWaiting = new ArrayDeque<>();
+    // Guarded by backfillWaiting; whether a drain of backfillWaiting is already scheduled
+    private boolean backfillDrainScheduled;
+    private final LatencyWindow coldLatency = new LatencyWindow(LATENCY_SAMPLES, 1);
+    private final LatencyWindow warmLatency = new LatencyWindow(LATENCY_SAMPLES, 1);
+    // When the backend last answered, or 0 if it has not in this process
+    private volatile long lastResponseAt;
+
+    private AnalyzerClient() {
+        deliveryExecutor = Executors.newFixedThreadPool(DELIVERY_THREADS);
+        // The limiter decides how many requests run, so the transport only needs room for that many
+        transport = new OkHttpTransport(MAX_CONCURRENCY + URGENT_RESERVE, deliveryExecutor,
+                this::onRequestFinished, GZIP_REQUESTS);
+    }
+
+    public static AnalyzerClient getInstance() {
+        if (INSTANCE == null) {
+            synchronized (AnalyzerClient.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AnalyzerClient();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Sets how many requests per second are sent to the backend, after a
+     * burst of up to {@code burst} requests, such as to lift the limit
+     * against a local stub in tests. Applies to the current client and any
+     * started later.
+     */
+    public static void setRateLimit(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit: " + ratePerSecond + "/s, burst " + burst);
+        }
+        synchronized (AnalyzerClient.class) {
+            AnalyzerClient.ratePerSecond = ratePerSecond;
+            AnalyzerClient.rateBurst = burst;
+            if (INSTANCE != null) {
+                INSTANCE.rateLimiter.setRate(ratePerSecond, burst);
+            }
+        }
+    }
+
+    /**
+     * Sends {@code request} once the rate limit allows and then once the
+     * concurrency limit allows, taking its turn among waiting requests by
+     * the weight of its priority.
+     */
+    <T> void add(AnalysisRequest<T> request, AnalysisPriority priority) {
+        request.priority = priority;
+        request.throttleHandler = this::onThrottled;
+        if (!priority.isUrgent()) {
+            request.queuedAtMs = SystemClock.elapsedRealtime();
+            synchronized (backfillWaiting) {
+                backfillWaiting.add(request);
+            }
+            drainBackfill();
+            return;
+        }
+        if (expiredBeforeSending(request)) {
+            return;
+        }
+        long peekMs = rateLimiter.peekWait();
+        if (peekMs > 0 && !fitsDeadline(request, peekMs)) {
+            // Waiting would spend the whole budget; let the caller fall back now rather than at its deadline
+            RATE_LIMITED.increment();
+            deliverUnsent(request, new AnalysisRequest.ThrottledError(
+                    "Rate limited for another " + peekMs + " ms"));
+            return;
+        }
+        long waitMs = rateLimiter.acquire();
+        RATE_LIMIT_WAIT.record(waitMs);
+        if (waitMs == 0) {
+            admit(request);
+        } else {
+            sendScheduler.schedule(() -> admitWhenResumed(request), waitMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs once an urgent request's token is due
+    private void admitWhenResumed(AnalysisRequest<?> request) {
+        if (request.isCanceled()) {
+            rateLimiter.refund();
+            return;
+        }
+        if (rateLimiter.pausedFor() > 0) {
+            // The backend throttled us while this request waited
+            long waitMs = rateLimiter.requeue();
+            sendScheduler.schedule(() -> admitWhenResumed(request), waitMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+        admit(request);
+    }
+
+    // Hands waiting backfill requests a token each, as long as tokens are free
+    private void drainBackfill() {
+        List<AnalysisRequest<?>> ready = new ArrayList<>();
+        synchronized (backfillWaiting) {
+            AnalysisRequest<?> head;
+            while ((head = backfillWaiting.peek()) != null) {
+                if (head.isCanceled()) {
+                    backfillWaiting.poll();
+                    continue;
+                }
+                long waitMs = rateLimiter.tryAcquire();
+                if (waitMs > 0) {
+                    if (!backfillDrainScheduled) {
+                        backfillDrainScheduled = true;
+                        sendScheduler.schedule(this::drainBackfillWhenDue, waitMs, TimeUnit.MILLISECONDS);
+                    }
+                    break;
+                }
+                RATE_LIMIT_WAIT.record(SystemClock.elapsedRealtime() - head.queuedAtMs);
+                ready.add(backfillWaiting.poll());
+            }
+        }
+        for (AnalysisRequest<?> request : ready) {
+            if (!expiredBeforeSending(request)) {
+                admit(request);
+            }
+        }
+    }
+
+    private void drainBackfillWhenDue() {
+        synchronized (backfillWaiting) {
+            backfillDrainScheduled = false;
+        }
+        drainBackfill();
+    }
+
+    // Queues a request that has its token for a concurrency slot
+    private void admit(AnalysisRequest<?> request) {
+        limiter.submit(request.priority, () -> send(request));
+    }
+
+    // Runs once the request has a concurrency slot
+    private void send(AnalysisRequest<?> request) {
+        if (request.isCanceled()) {
+            // Gave up while waiting, e.g. past its deadline; the slot goes to the next request
+            limiter.release();
+            return;
+        }
+        if (expiredBeforeSending(request)) {
+            limiter.release();
+            return;
+        }
+        transmit(request);
+    }
+
+    /**
+     * Fails a request whose budget ran out before it was sent, such as the
+     * tail of a long import. Sending it now would only time out and count
+     * against a backend that did nothing wrong.
+     */
+    private boolean expiredBeforeSending(AnalysisRequest<?> request) {
+        if (fitsDeadline(request, 0)) {
+            return false;
+        }
+        EXPIRED.increment();
+        deliverUnsent(request, new AnalysisRequest.ExpiredError("Deadline passed before sending"));
+        return true;
+    }
+
+    /**
+     * Sends a warm-up ping straight to the transport. A ping wakes the
+     * backend rather than asking it anything, so it takes no token or
+     * concurrency slot, and how long a cold start takes is kept out of the
+     * limiter and the latency metrics.
+     */
+    void sendPing(AnalysisRequest<?> request) {
+        request.warmUp = true;
+        transmit(request);
+    }
+
+    private void transmit(AnalysisRequest<?> request) {
+        DeadlineRetryPolicy deadline = deadlineOf(request);
+        if (deadline != null) {
+            deadline.start();
+        }
+        request.answeredAtMs = 0;
+        request.sentAtMs = SystemClock.elapsedRealtime();
+        transport.send(request);
+    }
+
+    // Reports a request that was given up on before it reached the transport
+    private void deliverUnsent(AnalysisRequest<?> request, VolleyError error) {
+        deliveryExecutor.execute(() -> {
+            if (!request.isCanceled()) {
+                request.deliverError(error);
+            }
+        });
+    }
+
+    // Runs on the delivery executor when the backend answers 429
+    private boolean onThrottled(AnalysisRequest<?> request, long retryAfterMs) {
+        THROTTLED.increment();
+        long waitMs = rateLimiter.onThrottled(retryAfterMs);
+        Log.w(TAG, "Backend throttled " + request.getUrl() + ", pausing requests for " + waitMs + " ms");
+        if (request.isCanceled() || request.throttledCount >= MAX_THROTTLED || !fitsDeadline(request, waitMs)) {
+            return false;
+        }
+        request.throttledCount++;
+        return true;
+    }
+
+    private static boolean fitsDeadline(AnalysisRequest<?> request, long delayMs) {
+        DeadlineRetryPolicy deadline = deadlineOf(request);
+        return deadline == null || deadline.hasTimeAfter(delayMs);
+    }
+
+    private static DeadlineRetryPolicy deadlineOf(AnalysisRequest<?> request) {
+        RetryPolicy policy = request.getRetryPolicy();
+        return policy instanceof DeadlineRetryPolicy ? (DeadlineRetryPolicy) policy : null;
+    }
+
+    /**
+     * Current number of requests allowed in flight.
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    public int getInFlightCount() {
+        return limiter.getInFlight();
+    }
+
+    /**
+     * Number of requests waiting for the concurrency limit.
+     */
+    public int getQueueDepth() {
+        return limiter.getQueueDepth();
+    }
+
+    public int getQueueDepth(AnalysisPriority priority) {
+        return limiter.getQueueDepth(priority);
+    }
+
+    /**
+     * Time, in milliseconds, that {@code fraction} of recent requests of
+     * {@code priority} waited for the concurrency limit before being sent,
+     * or -1 if there were none.
+     */
+    public long getQueueWaitMs(AnalysisPriority priority, double fraction) {
+        return limiter.getQueueWaitMs(priority, fraction);
+    }
+
+    /**
+     * Round trip, in milliseconds, that {@code fraction} of recent cold
+     * requests finished within, or -1 if there were none.
+     */
+    public long getColdLatencyMs(double fraction) {
+        return coldLatency.percentile(fraction);
+    }
+
+    /**
+     * Round trip, in milliseconds, that {@code fraction} of recent warm
+     * requests finished within, or -1 if there were none.
+     */
+    public long getWarmLatencyMs(double fraction) {
+        return warmLatency.percentile(fraction);
+    }
+
+    long getLastResponseAt() {
+        return lastResponseAt;
+    }
+
+    private void onRequestFinished(AnalysisRequest<?> analysis) {
+        if (analysis.warmUp) {
+            // Holds no slot; an answer only tells us the connection is warm
+            if (!analysis.isCanceled() && !analysis.backendFailed && analysis.answeredAtMs > 0) {
+                lastResponseAt = analysis.answeredAtMs;
+            }
+            return;
+        }
+        if (analysis.isCanceled()) {
+            // A cancelled request says nothing about how the backend is doing
+            limiter.release();
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long answeredAt = analysis.answeredAtMs > 0 ? analysis.answeredAtMs : now;
+        long rttMs = answeredAt - analysis.sentAtMs;
+        String rttClass = rttClassOf(analysis);
+        if (analysis.resendPending) {
+            // Refused with 429: the backend is overloaded, and the request takes a new turn
+            analysis.resendPending = false;
+            // Not sent again yet, so hedging leaves it alone while it waits
+            analysis.sentAtMs = 0;
+            limiter.release(rttClass, rttMs, true);
+            add(analysis, analysis.priority);
+            return;
+        }
+        REMOTE_LATENCY.record(rttMs);
+        long previousResponseAt = lastResponseAt;
+        if (previousResponseAt == 0 || analysis.sentAtMs - previousResponseAt > COLD_IDLE_MS) {
+            coldLatency.add(rttMs);
+            COLD_LATENCY.record(rttMs);
+            Log.d(TAG, "Cold request to " + analysis.getUrl() + " took " + rttMs + " ms");
+        } else {
+            warmLatency.add(rttMs);
+            WARM_LATENCY.record(rttMs);
+        }
+        if (analysis.backendFailed) {
+            REMOTE_FAILURES.increment();
+        } else {
+            lastResponseAt = answeredAt;
+        }
+        limiter.release(rttClass, rttMs, analysis.backendFailed);
+    }
+
+    /**
+     * Groups requests whose round trips are comparable: the same endpoint and
+     * a body of about the same size. A full batch takes longer than a single
+     * message without the backend being any busier.
+     */
+    static String rttClassOf(AnalysisRequest<?> request) {
+        byte[] body = request.getBody();
+        int size = body != null ? body.length : 0;
+        int sizeClass = 0;
+        for (int limit = RTT_CLASS_MIN_BYTES; size >= limit && limit > 0; limit <<= 2) {
+            sizeClass++;
+        }
+        return request.getUrl() + '#' + sizeClass;
+    }
+
+    /**
+     * Cancels pending requests and stops the network threads. Callbacks of
+     * cancelled requests are not invoked. The next {@link #getInstance()}
+     * starts a fresh client.
+     */
+    public static void shutdown() {
+        synchronized (AnalyzerClient.class) {
+            if (INSTANCE == null) {
+                return;
+            }
+            int dropped = INSTANCE.limiter.clear();
+            synchronized (INSTANCE.backfillWaiting) {
+                dropped += INSTANCE.backfillWaiting.size();
+                INSTANCE.backfillWaiting.clear();
+            }
+            INSTANCE.sendScheduler.shutdownNow();
+            INSTANCE.transport.shutdown();
+            INSTANCE.deliveryExecutor.shutdown();
+            INSTANCE = null;
+            Log.d(TAG, "Analyzer client shut down, dropped " + dropped + " waiting requests");
+        }
+    }
+}
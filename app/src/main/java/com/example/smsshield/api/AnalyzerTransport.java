@@ -0,0 +1,28 @@
+package com.example.smsshield.api;
+
+/**
+ * Sends {@link AnalysisRequest}s over HTTP.
+ *
+ * A transport applies the request's retry policy, delivers its response or
+ * error on a background executor and then reports it finished. Requests are
+ * assumed to have been admitted by the caller; a transport does not queue
+ * them beyond what its HTTP client needs.
+ */
+interface AnalyzerTransport {
+
+    /**
+     * Told once for every request sent, after its response or error has been
+     * delivered, or after it was cancelled without delivery.
+     */
+    interface FinishedListener {
+        void onFinished(AnalysisRequest<?> request);
+    }
+
+    void send(AnalysisRequest<?> request);
+
+    /**
+     * Cancels requests in progress and releases the transport's threads and
+     * connections. The transport cannot be used afterwards.
+     */
+    void shutdown();
+}
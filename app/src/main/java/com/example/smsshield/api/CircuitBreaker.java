@@ -0,0 +1,191 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for the analysis backend.
+ *
+ * While closed, the outcomes of the most recent requests are kept in a
+ * sliding window. Once enough of them have failed the breaker opens and
+ * {@link #acquire()} denies every request, so callers fall back to local
+ * analysis at once instead of waiting out timeouts and retries against a
+ * backend that is down or still starting. After {@code openMillis} a single
+ * probe request is let through; its outcome closes the breaker again or
+ * keeps it open for another period.
+ */
+final class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Whether a request may be sent.
+     */
+    enum Permit {
+        DENIED,
+        ALLOWED,
+        // The one request allowed while half-open, whose outcome decides the state
+        PROBE
+    }
+
+    private final LongSupplier clock;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final long openMillis;
+    private final long probeTimeoutMillis;
+
+    // Ring buffer of recent outcomes while closed; true means the request failed
+    private final boolean[] window;
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private long probeStartedAt;
+
+    /**
+     * @param windowSize Number of recent outcomes the failure rate is computed over
+     * @param minimumCalls Outcomes needed in the window before the breaker can open
+     * @param failureRateThreshold Failure rate, between 0 and 1, that opens the breaker
+     * @param openMillis How long the breaker stays open before probing
+     * @param probeTimeoutMillis How long a probe may go unanswered before another is allowed
+     */
+    CircuitBreaker(int windowSize, int minimumCalls, float failureRateThreshold,
+                   long openMillis, long probeTimeoutMillis) {
+        this(SystemClock::elapsedRealtime, windowSize, minimumCalls, failureRateThreshold, openMillis,
+                probeTimeoutMillis);
+    }
+
+    CircuitBreaker(LongSupplier clock, int windowSize, int minimumCalls, float failureRateThreshold,
+                   long openMillis, long probeTimeoutMillis) {
+        this.clock = clock;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.window = new boolean[windowSize];
+    }
+
+    synchronized Permit acquire() {
+        long now = clock.getAsLong();
+        switch (state) {
+            case CLOSED:
+                return Permit.ALLOWED;
+            case OPEN:
+                if (now - openedAt < openMillis) {
+                    return Permit.DENIED;
+                }
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                Log.d(TAG, "Half-open, sending probe");
+                return Permit.PROBE;
+            case HALF_OPEN:
+            default:
+                // A probe lost to cancellation would otherwise keep the breaker half-open forever
+                if (now - probeStartedAt < probeTimeoutMillis) {
+                    return Permit.DENIED;
+                }
+                probeStartedAt = now;
+                Log.d(TAG, "Probe unanswered, sending another");
+                return Permit.PROBE;
+        }
+    }
+
+    /**
+     * Records the outcome of a request that was sent with a permit.
+     *
+     * @param failed True if the backend was unreachable, timed out or
+     *               reported a server error
+     */
+    synchronized void record(boolean failed) {
+        if (state == State.HALF_OPEN) {
+            // Only the probe is in flight by now, apart from stragglers sent while closed
+            if (failed) {
+                Log.w(TAG, "Probe failed, staying open");
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // Requests sent before the breaker opened; the decision has been made
+            return;
+        }
+
+        if (windowCount == windowSize) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % windowSize;
+
+        if (windowCount >= minimumCalls && windowFailures >= failureRateThreshold * windowCount) {
+            Log.w(TAG, "Opening after " + windowFailures + " failures in " + windowCount + " requests");
+            open();
+        }
+    }
+
+    /**
+     * Gives back a permit whose request never reached the backend. An
+     * abandoned probe lets the next request probe at once rather than after
+     * the probe timeout, and does not decide the breaker's state.
+     */
+    synchronized void abandon(Permit permit) {
+        if (permit == Permit.PROBE && state == State.HALF_OPEN) {
+            probeStartedAt = clock.getAsLong() - probeTimeoutMillis;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns true while {@link #acquire()} would deny every request. Unlike
+     * {@link #getState()}, this turns false once an open breaker is due for a
+     * probe.
+     */
+    synchronized boolean isRejecting() {
+        long now = clock.getAsLong();
+        switch (state) {
+            case OPEN:
+                return now - openedAt < openMillis;
+            case HALF_OPEN:
+                return now - probeStartedAt < probeTimeoutMillis;
+            case CLOSED:
+            default:
+                return false;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        resetWindow();
+    }
+
+    private void close() {
+        Log.d(TAG, "Probe succeeded, closing");
+        state = State.CLOSED;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowCount = 0;
+        windowNext = 0;
+        windowFailures = 0;
+    }
+}
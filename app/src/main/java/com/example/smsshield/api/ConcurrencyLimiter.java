@@ -0,0 +1,267 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.smsshield.metrics.Histogram;
+import com.example.smsshield.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive bound on the number of backend requests in flight.
+ *
+ * The limit follows AIMD: every request that completes within
+ * {@code latencyTolerance} times the lowest observed round trip, while the
+ * limit was fully used, raises the limit by {@code 1 / limit}, so it grows by
+ * about one per round of requests. A slow or failed request multiplies it by
+ * {@code backoffRatio}, at most once per round trip. The lowest round trip
+ * is kept per class of request, such as an endpoint and body size, so a
+ * large batch is not judged against a health check.
+ *
+ * Work over the limit waits in one lane per {@link AnalysisPriority}. Lanes
+ * are served by weighted fair queuing: each waiting task is stamped with a
+ * virtual finish time that advances by {@code 1 / weight} per task in its
+ * lane, and the task with the earliest stamp goes next. A lane therefore
+ * gets its weighted share of freed slots however long the other lanes are,
+ * so a burst of backfill cannot hold up a live message and backfill still
+ * makes progress under a stream of urgent work. On top of that, urgent
+ * priorities may run up to {@code urgentReserve} tasks beyond the limit, so
+ * a live message is sent at once even while bulk work fills every slot.
+ */
+final class ConcurrencyLimiter {
+    private static final String TAG = "ConcurrencyLimiter";
+
+    // How quickly the lowest round trip forgets a fast outlier, per sample
+    private static final double MIN_RTT_DRIFT = 0.01;
+
+    private static final class Pending {
+        final Runnable task;
+        final double finishTag;
+        final long enqueuedAt;
+
+        Pending(Runnable task, double finishTag, long enqueuedAt) {
+            this.task = task;
+            this.finishTag = finishTag;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private static final class Lane {
+        final AnalysisPriority priority;
+        final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        // Time from submit to start, including tasks that started at once
+        final LatencyWindow queueWait = new LatencyWindow(QUEUE_WAIT_SAMPLES, 1);
+        // The same, for the whole process
+        final Histogram queueWaitHistogram;
+        // Finish tag of the last task queued in this lane
+        double lastFinishTag;
+
+        Lane(AnalysisPriority priority) {
+            this.priority = priority;
+            this.queueWaitHistogram = MetricsRegistry.getInstance().histogram(
+                    "queue.wait_ms." + priority.name().toLowerCase(Locale.ROOT));
+        }
+
+        void recordWait(long waitMs) {
+            queueWait.add(waitMs);
+            queueWaitHistogram.record(waitMs);
+        }
+    }
+
+    private static final int QUEUE_WAIT_SAMPLES = 128;
+
+    private final LongSupplier clock;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final int urgentReserve;
+
+    private final Lane[] lanes;
+    // Finish tag of the task that started last; new tasks in an idle lane start from here
+    private double virtualTime;
+    private int queued;
+    private double limit;
+    private int inFlight;
+    // Decaying minimum of the round trips seen so far, per class of request
+    private final Map<String, Double> minRttMs = new HashMap<>();
+    private long lastDecreaseAt;
+
+    /**
+     * @param urgentReserve Tasks that {@linkplain AnalysisPriority#isUrgent urgent}
+     *                      priorities may run beyond the limit
+     */
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                       double latencyTolerance, double backoffRatio, int urgentReserve) {
+        this(SystemClock::elapsedRealtime, initialLimit, minLimit, maxLimit, latencyTolerance, backoffRatio,
+                urgentReserve);
+    }
+
+    ConcurrencyLimiter(LongSupplier clock, int initialLimit, int minLimit, int maxLimit,
+                       double latencyTolerance, double backoffRatio, int urgentReserve) {
+        this.clock = clock;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.urgentReserve = urgentReserve;
+        AnalysisPriority[] priorities = AnalysisPriority.values();
+        this.lanes = new Lane[priorities.length];
+        for (AnalysisPriority priority : priorities) {
+            lanes[priority.ordinal()] = new Lane(priority);
+        }
+    }
+
+    /**
+     * Runs {@code task} now if the limit allows, otherwise once enough
+     * earlier tasks have {@linkplain #release released} their slots. Every
+     * task that runs must be released exactly once.
+     */
+    void submit(AnalysisPriority priority, Runnable task) {
+        Lane lane = lanes[priority.ordinal()];
+        synchronized (this) {
+            // Waiting work of the same lane goes first, so a lane never overtakes itself
+            if (!lane.queue.isEmpty() || inFlight >= capacityFor(priority)) {
+                double finishTag = Math.max(virtualTime, lane.lastFinishTag) + 1.0 / priority.weight;
+                lane.lastFinishTag = finishTag;
+                lane.queue.add(new Pending(task, finishTag, clock.getAsLong()));
+                queued++;
+                return;
+            }
+            inFlight++;
+        }
+        lane.recordWait(0);
+        task.run();
+    }
+
+    /**
+     * Frees the slot of a task that never reached the backend, such as one
+     * cancelled while it waited, without adjusting the limit.
+     */
+    void release() {
+        release(null, -1, false);
+    }
+
+    /**
+     * Frees the slot of a task that finished and starts queued tasks that now fit.
+     *
+     * @param rttClass Requests whose round trips are comparable, such as the
+     *                 same endpoint and body size
+     * @param rttMs Round trip of the request, or a negative value if it says
+     *              nothing about the backend
+     * @param failed True if the backend timed out, was unreachable or reported
+     *               a server error
+     */
+    void release(String rttClass, long rttMs, boolean failed) {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            boolean saturated = inFlight >= (int) limit || queued > 0;
+            inFlight--;
+            if (rttMs >= 0) {
+                adjust(rttClass, rttMs, failed, saturated);
+            }
+            long now = clock.getAsLong();
+            Lane lane;
+            while ((lane = nextLane()) != null) {
+                Pending next = lane.queue.poll();
+                queued--;
+                virtualTime = next.finishTag;
+                lane.recordWait(now - next.enqueuedAt);
+                ready.add(next.task);
+                inFlight++;
+            }
+        }
+        // Outside the lock, since sending can complete and release synchronously
+        for (Runnable task : ready) {
+            task.run();
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    synchronized int getQueueDepth(AnalysisPriority priority) {
+        return lanes[priority.ordinal()].queue.size();
+    }
+
+    /**
+     * Time, in milliseconds, that {@code fraction} of recent tasks of
+     * {@code priority} waited before starting, or -1 if there were none.
+     */
+    long getQueueWaitMs(AnalysisPriority priority, double fraction) {
+        return lanes[priority.ordinal()].queueWait.percentile(fraction);
+    }
+
+    /**
+     * Drops queued tasks without running them and returns how many there were.
+     */
+    synchronized int clear() {
+        int dropped = queued;
+        for (Lane lane : lanes) {
+            lane.queue.clear();
+        }
+        queued = 0;
+        return dropped;
+    }
+
+    private int capacityFor(AnalysisPriority priority) {
+        return (int) limit + (priority.isUrgent() ? urgentReserve : 0);
+    }
+
+    /**
+     * Returns the lane whose head task has the earliest finish tag among
+     * those that fit in the current capacity, or null if none does.
+     */
+    private Lane nextLane() {
+        Lane best = null;
+        for (Lane lane : lanes) {
+            Pending head = lane.queue.peek();
+            if (head == null || inFlight >= capacityFor(lane.priority)) {
+                continue;
+            }
+            if (best == null || head.finishTag < best.queue.peek().finishTag) {
+                best = lane;
+            }
+        }
+        return best;
+    }
+
+    private void adjust(String rttClass, long rttMs, boolean failed, boolean saturated) {
+        Double minRtt = minRttMs.get(rttClass);
+        boolean slow = minRtt != null && minRtt > 0 && rttMs > minRtt * latencyTolerance;
+        if (!failed) {
+            minRttMs.put(rttClass, minRtt == null || rttMs < minRtt
+                    ? rttMs : minRtt + (rttMs - minRtt) * MIN_RTT_DRIFT);
+        }
+        if (failed || slow) {
+            // Requests sent before the last decrease see the same congestion; count it once
+            long now = clock.getAsLong();
+            if (now - lastDecreaseAt >= rttMs) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseAt = now;
+                Log.d(TAG, "Limit lowered to " + (int) limit + " after a "
+                        + (failed ? "failed" : "slow") + " request (" + rttMs + " ms)");
+            }
+        } else if (saturated && limit < maxLimit) {
+            // Growing while under the limit would only raise it past what was ever tested
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+}
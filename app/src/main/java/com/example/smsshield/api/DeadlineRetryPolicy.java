@@ -0,0 +1,114 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+import com.example.smsshield.metrics.Counter;
+import com.example.smsshield.metrics.MetricsRegistry;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Retry policy that spends an end-to-end deadline instead of restarting the
+ * clock on every attempt.
+ *
+ * Each attempt gets the usual growing socket timeout, cut down to the time
+ * left before the deadline, and no retry is started once too little of the
+ * budget remains for it to succeed.
+ *
+ * The deadline is either fixed when the policy is created, for a caller
+ * waiting on an answer, or {@linkplain #fromFirstSend set when the request is
+ * first sent}, for bulk work whose requests may queue for a long time before
+ * their turn comes.
+ */
+final class DeadlineRetryPolicy implements RetryPolicy {
+    // An attempt with less time than this left is not worth starting
+    private static final long MIN_ATTEMPT_MS = 250;
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private static final Counter RETRIES = MetricsRegistry.getInstance().counter("remote.retries");
+
+    private final LongSupplier clock;
+    private final long budgetMs;
+    private final int maxRetries;
+    private final float backoffMultiplier;
+    // NOT_STARTED until the first send for a policy created by fromFirstSend
+    private volatile long deadlineAt;
+    private int currentTimeoutMs;
+    private int retryCount;
+
+    /**
+     * @param deadlineAt {@link SystemClock#elapsedRealtime()} by which the request must be answered
+     * @param initialTimeoutMs Socket timeout of the first attempt
+     * @param maxRetries Most retries allowed, budget permitting
+     * @param backoffMultiplier Growth of the socket timeout per retry
+     */
+    DeadlineRetryPolicy(long deadlineAt, int initialTimeoutMs, int maxRetries, float backoffMultiplier) {
+        this(SystemClock::elapsedRealtime, deadlineAt, 0, initialTimeoutMs, maxRetries, backoffMultiplier);
+    }
+
+    DeadlineRetryPolicy(LongSupplier clock, long deadlineAt, long budgetMs, int initialTimeoutMs,
+                        int maxRetries, float backoffMultiplier) {
+        this.clock = clock;
+        this.deadlineAt = deadlineAt;
+        this.budgetMs = budgetMs;
+        this.currentTimeoutMs = initialTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    /**
+     * Creates a policy whose budget of {@code budgetMs} starts when
+     * {@link #start()} is called as the request is first sent, so time spent
+     * waiting for a concurrency slot does not count against it.
+     */
+    static DeadlineRetryPolicy fromFirstSend(long budgetMs, int initialTimeoutMs, int maxRetries,
+                                             float backoffMultiplier) {
+        return new DeadlineRetryPolicy(SystemClock::elapsedRealtime, NOT_STARTED, budgetMs,
+                initialTimeoutMs, maxRetries, backoffMultiplier);
+    }
+
+    /**
+     * Starts the budget of a policy created by {@link #fromFirstSend}. Does
+     * nothing if it has already started or has a fixed deadline.
+     */
+    void start() {
+        if (deadlineAt == NOT_STARTED) {
+            deadlineAt = clock.getAsLong() + budgetMs;
+        }
+    }
+
+    /**
+     * Whether an attempt started {@code delayMs} from now would still have
+     * enough of the budget left to succeed.
+     */
+    boolean hasTimeAfter(long delayMs) {
+        return remainingMs() - delayMs >= MIN_ATTEMPT_MS;
+    }
+
+    @Override
+    public int getCurrentTimeout() {
+        return (int) Math.max(1, Math.min(currentTimeoutMs, remainingMs()));
+    }
+
+    @Override
+    public int getCurrentRetryCount() {
+        return retryCount;
+    }
+
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        retryCount++;
+        currentTimeoutMs += (int) (currentTimeoutMs * backoffMultiplier);
+        if (retryCount > maxRetries || !hasTimeAfter(0)) {
+            throw error;
+        }
+        RETRIES.increment();
+    }
+
+    private long remainingMs() {
+        long deadline = deadlineAt;
+        return deadline == NOT_STARTED ? budgetMs : deadline - clock.getAsLong();
+    }
+}
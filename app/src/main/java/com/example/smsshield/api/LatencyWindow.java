@@ -0,0 +1,48 @@
+package com.example.smsshield.api;
+
+import java.util.Arrays;
+
+/**
+ * The most recent request latencies, for estimating percentiles.
+ */
+final class LatencyWindow {
+    private final long[] samples;
+    private final int minSamples;
+    private int count;
+    private int next;
+
+    /**
+     * @param capacity Number of recent samples kept
+     * @param minSamples Samples needed before percentiles are reported
+     */
+    LatencyWindow(int capacity, int minSamples) {
+        this.samples = new long[capacity];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void add(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the latency below which {@code fraction} of the recent samples
+     * fall, or -1 if there are too few samples to tell.
+     */
+    synchronized long percentile(double fraction) {
+        if (count < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.smsshield.api;
+
+import android.util.Log;
+
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Transport on OkHttp, which keeps connections to the backend alive in its
+ * pool, multiplexes concurrent requests over one HTTP/2 connection when the
+ * server negotiates it, and sends from a small pool of non-blocking calls
+ * instead of one thread per request.
+ *
+ * Request bodies can be gzip-compressed, which batches of similar messages
+ * shrink well under; the backend must accept {@code Content-Encoding: gzip}
+ * for that to be turned on. Retries follow the request's retry policy the
+ * way Volley applies it: timed-out attempts are retried, other failures are
+ * not.
+ */
+final class OkHttpTransport implements AnalyzerTransport {
+    private static final String TAG = "OkHttpTransport";
+
+    // Smaller bodies fit in one packet either way, so compressing them only costs CPU
+    private static final int GZIP_MIN_BYTES = 1024;
+    // Matches the HttpURLConnection pool, so idle connections live as long as before
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final OkHttpClient client;
+    private final Executor deliveryExecutor;
+    private final FinishedListener finishedListener;
+    private final boolean gzipRequests;
+    // Sent and not yet finished, so shutdown can cancel them
+    private final Set<AnalysisRequest<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxRequests Most requests run at once
+     * @param deliveryExecutor Runs response and error listeners
+     * @param finishedListener Told when each request is done
+     * @param gzipRequests Whether to compress request bodies
+     */
+    OkHttpTransport(int maxRequests, Executor deliveryExecutor, FinishedListener finishedListener,
+                    boolean gzipRequests) {
+        this.deliveryExecutor = deliveryExecutor;
+        this.finishedListener = finishedListener;
+        this.gzipRequests = gzipRequests;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        // Every request goes to the one backend host
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxRequests, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                // Each call is bounded by its retry policy's timeout instead
+                .connectTimeout(0, TimeUnit.MILLISECONDS)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .writeTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public void send(AnalysisRequest<?> request) {
+        inFlight.add(request);
+        attempt(request);
+    }
+
+    @Override
+    public void shutdown() {
+        for (AnalysisRequest<?> request : inFlight) {
+            request.cancel();
+        }
+        client.dispatcher().cancelAll();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private <T> void attempt(AnalysisRequest<T> request) {
+        if (request.isCanceled()) {
+            finish(request);
+            return;
+        }
+
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.getUrl());
+        byte[] body = request.getBody();
+        if (request.getMethod() == Request.Method.POST && body != null) {
+            MediaType contentType = MediaType.parse(request.getBodyContentType());
+            if (gzipRequests && body.length >= GZIP_MIN_BYTES) {
+                try {
+                    body = gzip(body);
+                    builder.header("Content-Encoding", "gzip");
+                } catch (IOException e) {
+                    // Compressing in memory does not fail in practice; send it as is
+                    Log.w(TAG, "Could not compress request body", e);
+                }
+            }
+            builder.post(RequestBody.create(body, contentType));
+        } else {
+            builder.get();
+        }
+
+        Call call = client.newCall(builder.build());
+        call.timeout().timeout(request.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        request.setCancelAction(call::cancel);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (request.isCanceled()) {
+                    finish(request);
+                    return;
+                }
+                if (!(e instanceof InterruptedIOException)) {
+                    deliverError(request, new NoConnectionError(e));
+                    return;
+                }
+                try {
+                    // Throws once the policy has no retries or time left
+                    request.getRetryPolicy().retry(new TimeoutError());
+                } catch (VolleyError error) {
+                    deliverError(request, error);
+                    return;
+                }
+                attempt(request);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                NetworkResponse networkResponse;
+                try (ResponseBody responseBody = response.body()) {
+                    byte[] data = responseBody != null ? responseBody.bytes() : new byte[0];
+                    networkResponse = new NetworkResponse(response.code(), data, false,
+                            response.receivedResponseAtMillis() - response.sentRequestAtMillis(),
+                            toVolleyHeaders(response.headers()));
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                }
+                int status = networkResponse.statusCode;
+                if (status >= 200 && status < 300) {
+                    // Parse on the network thread, as Volley does, and deliver on the executor
+                    com.android.volley.Response<T> parsed = request.parseNetworkResponse(networkResponse);
+                    if (parsed.isSuccess()) {
+                        deliverResponse(request, parsed.result);
+                    } else {
+                        deliverError(request, parsed.error);
+                    }
+                } else if (status >= 500) {
+                    deliverError(request, new ServerError(networkResponse));
+                } else {
+                    deliverError(request, new ClientError(networkResponse));
+                }
+            }
+        });
+    }
+
+    private <T> void deliverResponse(AnalysisRequest<T> request, T result) {
+        if (request.isCanceled()) {
+            finish(request);
+            return;
+        }
+        deliveryExecutor.execute(() -> {
+            if (!request.isCanceled()) {
+                request.deliverResponse(result);
+            }
+            finish(request);
+        });
+    }
+
+    private void deliverError(AnalysisRequest<?> request, VolleyError error) {
+        if (request.isCanceled()) {
+            finish(request);
+            return;
+        }
+        // On the network thread, as Volley's dispatcher does
+        VolleyError parsed = request.parseNetworkError(error);
+        deliveryExecutor.execute(() -> {
+            if (!request.isCanceled()) {
+                request.deliverError(parsed);
+            }
+            finish(request);
+        });
+    }
+
+    private void finish(AnalysisRequest<?> request) {
+        inFlight.remove(request);
+        finishedListener.onFinished(request);
+    }
+
+    private static List<Header> toVolleyHeaders(Headers headers) {
+        List<Header> result = new ArrayList<>(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            result.add(new Header(headers.name(i), headers.value(i)));
+        }
+        return result;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
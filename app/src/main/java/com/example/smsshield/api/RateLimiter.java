@@ -0,0 +1,161 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket shared by every request to the analysis backend.
+ *
+ * The bucket holds up to {@code burst} tokens and refills at
+ * {@code ratePerSecond}. Each request takes one token when it is about to be
+ * sent; when the bucket is empty the token is taken on credit, and the
+ * request is told how long to wait for it. The deficit is shared, so a burst
+ * of callers is spread out at the refill rate instead of all waiting for the
+ * same token. Work that nobody is waiting on uses {@link #tryAcquire()}
+ * instead and never takes a token on credit, so the deficit only ever holds
+ * urgent requests and a new one waits behind those alone.
+ *
+ * When the backend answers 429, {@link #onThrottled(long)} empties the bucket
+ * and stops the refill until its {@code Retry-After} has passed, so every
+ * caller backs off together rather than only the one that was refused.
+ */
+final class RateLimiter {
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private double tokensPerMs;
+    private int burst;
+
+    // Guarded by this; negative while requests are waiting on credit
+    private double tokens;
+    // Guarded by this; refill resumes from here, which is in the future while throttled
+    private long refilledAt;
+
+    /**
+     * @param ratePerSecond Sustained requests per second
+     * @param burst Requests that may be sent at once after an idle period
+     */
+    RateLimiter(double ratePerSecond, int burst) {
+        this(SystemClock::elapsedRealtime, ratePerSecond, burst);
+    }
+
+    RateLimiter(LongSupplier clock, double ratePerSecond, int burst) {
+        this.clock = clock;
+        this.tokensPerMs = ratePerSecond / 1000;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = clock.getAsLong();
+    }
+
+    /**
+     * Changes the rate and burst, keeping the current balance within the new burst.
+     */
+    synchronized void setRate(double ratePerSecond, int burst) {
+        refill(clock.getAsLong());
+        this.tokensPerMs = ratePerSecond / 1000;
+        this.burst = burst;
+        tokens = Math.min(burst, tokens);
+    }
+
+    /**
+     * Takes a token and returns how long, in milliseconds, to wait before
+     * sending; 0 if a token was free.
+     */
+    synchronized long acquire() {
+        long now = clock.getAsLong();
+        refill(now);
+        tokens -= 1;
+        return waitFor(now);
+    }
+
+    /**
+     * Takes a token only if one is free now, without going into credit.
+     *
+     * @return 0 if a token was taken, otherwise how long until one may be
+     *         free, if nobody takes it on credit first
+     */
+    synchronized long tryAcquire() {
+        long now = clock.getAsLong();
+        refill(now);
+        long paused = Math.max(0, refilledAt - now);
+        if (paused == 0 && tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return paused + (long) Math.ceil(Math.max(0, 1 - tokens) / tokensPerMs);
+    }
+
+    /**
+     * How long a request would wait if it took a token now, without taking it.
+     */
+    synchronized long peekWait() {
+        long now = clock.getAsLong();
+        refill(now);
+        tokens -= 1;
+        long wait = waitFor(now);
+        tokens += 1;
+        return wait;
+    }
+
+    /**
+     * Time left, in milliseconds, before requests may go out again after a
+     * 429, or 0 if the backend is not throttling us.
+     */
+    synchronized long pausedFor() {
+        return Math.max(0, refilledAt - clock.getAsLong());
+    }
+
+    /**
+     * Gives back a token taken by a request that was not sent after all.
+     */
+    synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    /**
+     * Gives back a token taken before a 429 and takes another at the end of
+     * the line, so requests that were waiting on credit are spread out again
+     * after the pause instead of all going at once when it ends.
+     *
+     * @return How long to wait for the new token
+     */
+    synchronized long requeue() {
+        refund();
+        return acquire();
+    }
+
+    /**
+     * Backs every caller off after the backend refused a request.
+     *
+     * @param retryAfterMs How long the backend asked us to wait
+     * @return How long a request taking a token now would wait
+     */
+    synchronized long onThrottled(long retryAfterMs) {
+        long now = clock.getAsLong();
+        refill(now);
+        // Nothing left to spend; requests already waiting on credit keep their place
+        tokens = Math.min(tokens, 0);
+        refilledAt = Math.max(refilledAt, now + retryAfterMs);
+        tokens -= 1;
+        long wait = waitFor(now);
+        tokens += 1;
+        return wait;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerMs);
+            refilledAt = now;
+        }
+    }
+
+    // Time until the balance is back to zero, counting any pause after a 429
+    private long waitFor(long now) {
+        long paused = Math.max(0, refilledAt - now);
+        if (tokens >= 0) {
+            return paused;
+        }
+        return paused + (long) Math.ceil(-tokens / tokensPerMs);
+    }
+}
@@ -1,207 +1,943 @@
 package com.example.smsshield.api;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.android.volley.DefaultRetryPolicy;
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
+import androidx.annotation.VisibleForTesting;
+
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
+import com.example.smsshield.analysis.LocalClassifier;
+import com.example.smsshield.analysis.SimHashIndex;
+import com.example.smsshield.database.SmsShieldDatabase;
+import com.example.smsshield.database.dao.SpamFingerprintDao;
+import com.example.smsshield.database.entities.CachedVerdict;
 import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.database.entities.SpamFingerprint;
+import com.example.smsshield.metrics.Counter;
+import com.example.smsshield.metrics.Histogram;
+import com.example.smsshield.metrics.MetricsRegistry;
 import com.example.smsshield.repository.MessageRepository;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SmsAnalyzerService {
     private static final String TAG = "SmsAnalyzerService";
-    private static final String API_URL = "https://smsshieldbackend.onrender.com/analyze";
+    private static final String API_BASE_URL = "https://smsshieldbackend.onrender.com";
+    private static final String ANALYZE_PATH = "/analyze";
+    private static final String ANALYZE_BATCH_PATH = "/analyze/batch";
+    private static final String HEALTH_PATH = "/health";
     
     // Timeout parameters
     private static final int SOCKET_TIMEOUT_MS = 15000; // 15 seconds
     private static final int MAX_RETRIES = 2;
     private static final float BACKOFF_MULTIPLIER = 1.5f;
     
-    private final RequestQueue requestQueue;
+    // End-to-end budgets from the analyze call to a verdict, covering queueing and retries
+    private static final long INTERACTIVE_BUDGET_MS = 10000;
+    private static final long LIVE_BUDGET_MS = 2000;
+    private static final long BACKFILL_BUDGET_MS = 30000;
+    // Deadline of bulk work, whose requests each get the budget from when they are sent:
+    // a long import queues for far longer than one budget
+    private static final long PER_REQUEST_DEADLINE = Long.MAX_VALUE;
+    // A single request still unanswered at this percentile of recent latencies is hedged,
+    // but never sooner than the floor, where a duplicate would only add load
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final long MIN_HEDGE_DELAY_MS = 300;
+    
+    // Circuit breaker: open when half of the last 20 requests (at least 5) failed,
+    // then probe the backend again after 30 seconds
+    private static final int CIRCUIT_WINDOW = 20;
+    private static final int CIRCUIT_MINIMUM_CALLS = 5;
+    private static final float CIRCUIT_FAILURE_RATE = 0.5f;
+    private static final long CIRCUIT_OPEN_MS = 30000;
+    
+    // Warm-up: ping after 45 s without a response while traffic is expected, which
+    // is for five minutes after the app is opened or an SMS arrives
+    private static final long KEEP_ALIVE_MS = 45000;
+    private static final long WARM_WINDOW_MS = 5 * 60 * 1000;
+    // Long enough for the backend to start from idle
+    private static final int PING_TIMEOUT_MS = 60000;
+    
+    // Bounds for a single batch request, so one slow batch never holds too many messages
+    private static final int MAX_BATCH_MESSAGES = 50;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    // JSON keys, quotes and the message id added around each batch item
+    private static final int BATCH_ITEM_OVERHEAD_BYTES = 64;
+    // How long to send messages one by one after the backend said it has no batch endpoint;
+    // long enough not to ask on every import, short enough to notice a backend upgrade
+    private static final long BATCH_UNSUPPORTED_MS = 30 * 60 * 1000;
+    
+    // Local verdicts outside [safeBelow, spamAbove] are trusted without asking the backend.
+    // The default leaves only the model's far tails to the device; NaiveBayesCalibrationTest
+    // checks that held-out messages outside it are all classified correctly.
+    private static final String ANALYZER_PREFS = "analyzer_prefs";
+    private static final String KEY_SAFE_BELOW = "cascade_safe_below";
+    private static final String KEY_SPAM_ABOVE = "cascade_spam_above";
+    public static final float DEFAULT_SAFE_BELOW = 0.05f;
+    public static final float DEFAULT_SPAM_ABOVE = 0.95f;
+    
+    // Messages someone is waiting on get their own threads, so they never queue behind the
+    // on-device stage of a bulk import, which writes a status for every message it decides
+    private static final ExecutorService URGENT_EXECUTOR = Executors.newFixedThreadPool(2);
+    private static final ExecutorService BACKFILL_EXECUTOR = Executors.newSingleThreadExecutor();
+    // Messages per task of a bulk analysis; the rest go to the back of the line after each
+    private static final int LOCAL_STAGE_CHUNK = MAX_BATCH_MESSAGES;
+    
+    // Runs deadline fallbacks, hedges and warm-up pings; most timers are cancelled, so drop them right away
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1);
+    static {
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+    
+    // Latencies of recent single requests that the backend answered
+    private static final LatencyWindow REMOTE_LATENCY = new LatencyWindow(128, 20);
+    
+    // Fingerprints of recent spam confirmed by the backend or the user, shared by every
+    // instance and reloaded from their table the first time a message is analyzed
+    private static final SimHashIndex SPAM_FINGERPRINTS = new SimHashIndex();
+    private static final AtomicBoolean spamFingerprintsLoaded = new AtomicBoolean();
+    
+    // Analyses in progress, so concurrent requests for one message or body share a result
+    private static final AnalysisFlights IN_FLIGHT = new AnalysisFlights();
+    
+    private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+    // How each analysis was decided; fallbacks over requests is the fallback rate
+    private static final Counter ANALYSIS_REQUESTS = METRICS.counter("analysis.requests");
+    private static final Counter ANALYSIS_ERRORS = METRICS.counter("analysis.errors");
+    private static final Counter LOCAL_VERDICTS = METRICS.counter("analysis.local_verdicts");
+    private static final Counter CACHE_HITS = METRICS.counter("analysis.cache_hits");
+    private static final Counter NEAR_DUPLICATE_HITS = METRICS.counter("analysis.near_duplicate_hits");
+    private static final Counter REMOTE_VERDICTS = METRICS.counter("analysis.remote_verdicts");
+    private static final Counter FALLBACKS = METRICS.counter("analysis.fallbacks");
+    private static final Counter CIRCUIT_REJECTIONS = METRICS.counter("analysis.circuit_rejections");
+    private static final Counter HEDGES = METRICS.counter("remote.hedges");
+    // From the analyze call to the callback, whichever stage decided
+    private static final Histogram ANALYSIS_LATENCY = METRICS.histogram("analysis.latency_ms");
+    
+    private static volatile SmsAnalyzerService INSTANCE;
+    // {safeBelow, spamAbove}, read from the preferences on first use and replaced as a whole
+    private static volatile float[] confidenceBand;
+    
+    private final Context appContext;
+    private final String analyzeUrl;
+    private final String analyzeBatchUrl;
     private final MessageRepository messageRepository;
+    private final VerdictCache verdictCache;
+    private final SpamFingerprintDao spamFingerprintDao;
+    private final LocalClassifier localClassifier;
+    private final CircuitBreaker circuitBreaker;
+    private final WarmUpScheduler warmUpScheduler;
+    // elapsedRealtime until which batches are sent as single requests; 0 while the endpoint works
+    private volatile long batchUnsupportedUntil;
     
     public SmsAnalyzerService(Context context, MessageRepository messageRepository) {
-        this.requestQueue = Volley.newRequestQueue(context);
+        this(context, messageRepository, API_BASE_URL);
+    }
+    
+    /**
+     * Returns the process-wide service. Every service sends through the shared
+     * {@link AnalyzerClient}, so callers should use this rather than creating
+     * their own repository and service for each check.
+     */
+    public static SmsAnalyzerService getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (SmsAnalyzerService.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SmsAnalyzerService(context.getApplicationContext(),
+                            new MessageRepository(context.getApplicationContext()));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+    
+    /**
+     * Creates a service that talks to the backend at {@code apiBaseUrl}, such
+     * as a staging server or a local stub in tests.
+     */
+    public SmsAnalyzerService(Context context, MessageRepository messageRepository, String apiBaseUrl) {
+        this.appContext = context.getApplicationContext();
+        this.analyzeUrl = apiBaseUrl + ANALYZE_PATH;
+        this.analyzeBatchUrl = apiBaseUrl + ANALYZE_BATCH_PATH;
         this.messageRepository = messageRepository;
+        this.verdictCache = VerdictCache.getInstance(context);
+        this.spamFingerprintDao = SmsShieldDatabase.getInstance(context).spamFingerprintDao();
+        this.localClassifier = LocalClassifier.getInstance(context);
+        this.circuitBreaker = new CircuitBreaker(CIRCUIT_WINDOW, CIRCUIT_MINIMUM_CALLS,
+                CIRCUIT_FAILURE_RATE, CIRCUIT_OPEN_MS, 2L * SOCKET_TIMEOUT_MS);
+        this.warmUpScheduler = new WarmUpScheduler(apiBaseUrl + HEALTH_PATH, SCHEDULER,
+                KEEP_ALIVE_MS, WARM_WINDOW_MS, PING_TIMEOUT_MS);
+    }
+    
+    /**
+     * Sets the band of local spam probabilities that are considered uncertain.
+     * Messages scoring below {@code safeBelow} are marked safe and messages
+     * scoring above {@code spamAbove} are marked spam without a backend call;
+     * anything in between is sent to the backend.
+     */
+    public static void setConfidenceBand(Context context, float safeBelow, float spamAbove) {
+        if (safeBelow < 0f || spamAbove > 1f || safeBelow > spamAbove) {
+            throw new IllegalArgumentException("Invalid confidence band: " + safeBelow + ".." + spamAbove);
+        }
+        synchronized (SmsAnalyzerService.class) {
+            context.getSharedPreferences(ANALYZER_PREFS, Context.MODE_PRIVATE).edit()
+                    .putFloat(KEY_SAFE_BELOW, safeBelow)
+                    .putFloat(KEY_SPAM_ABOVE, spamAbove)
+                    .apply();
+            confidenceBand = new float[] {safeBelow, spamAbove};
+        }
+    }
+    
+    /**
+     * Forgets the band read from the preferences, so the next analysis reads
+     * it again from whatever context it is given.
+     */
+    @VisibleForTesting
+    public static void resetConfidenceBandForTesting() {
+        synchronized (SmsAnalyzerService.class) {
+            confidenceBand = null;
+        }
+    }
+    
+    private static float[] confidenceBand(Context context) {
+        float[] band = confidenceBand;
+        if (band == null) {
+            synchronized (SmsAnalyzerService.class) {
+                band = confidenceBand;
+                if (band == null) {
+                    SharedPreferences prefs = context.getSharedPreferences(ANALYZER_PREFS, Context.MODE_PRIVATE);
+                    band = new float[] {prefs.getFloat(KEY_SAFE_BELOW, DEFAULT_SAFE_BELOW),
+                            prefs.getFloat(KEY_SPAM_ABOVE, DEFAULT_SPAM_ABOVE)};
+                    confidenceBand = band;
+                }
+            }
+        }
+        return band;
+    }
+    
+    /**
+     * Signals that analyses are likely soon, such as when the app comes to
+     * the foreground or an SMS arrives, so the backend is woken up and the
+     * connection kept open ahead of them.
+     */
+    public void warmUp() {
+        warmUpScheduler.expectTraffic();
+    }
+    
+    /**
+     * Returns false while the circuit breaker is open and analyses would only
+     * get local verdicts, so bulk work can wait instead.
+     */
+    public boolean isBackendAvailable() {
+        return !circuitBreaker.isRejecting();
     }
     
     public interface AnalysisCallback {
         void onResult(boolean isSpam, String message);
         void onError(String error);
+        
+        /**
+         * Reports a verdict from local analysis alone, used because the
+         * backend could not answer in time. The verdict has been saved like
+         * any other; callers that only show it can leave this as
+         * {@code onResult}.
+         */
+        default void onFallback(boolean isSpam, String message) {
+            onResult(isSpam, message);
+        }
+    }
+    
+    /**
+     * Receives the results of {@link #analyzeMessages}. Every message gets
+     * exactly one {@code onResult}, {@code onFallback} or {@code onError},
+     * followed by a single {@code onComplete} once all of them have been
+     * reported. Calls arrive on background threads.
+     */
+    public interface BatchCallback {
+        void onResult(Message message, boolean isSpam, String resultMessage);
+        void onError(Message message, String error);
+        void onComplete();
+        
+        /**
+         * Reports a verdict from local analysis alone, as
+         * {@link AnalysisCallback#onFallback}. Callers that only show the
+         * verdict can leave this as {@code onResult}.
+         */
+        default void onFallback(Message message, boolean isSpam, String resultMessage) {
+            onResult(message, isSpam, resultMessage);
+        }
     }
     
+    // A message that still needs a backend verdict, with where to report it
+    private static final class PendingAnalysis {
+        final Message message;
+        final long cacheKey;
+        final AnalysisCallback callback;
+        
+        PendingAnalysis(Message message, long cacheKey, AnalysisCallback callback) {
+            this.message = message;
+            this.cacheKey = cacheKey;
+            this.callback = callback;
+        }
+    }
+    
+    /**
+     * Analyzes a message the user asked to check, with
+     * {@link AnalysisPriority#INTERACTIVE} priority.
+     */
     public void analyzeMessage(Message message, AnalysisCallback callback) {
-        try {
-            JSONObject jsonRequest = new JSONObject();
-            jsonRequest.put("message", message.getContent());
-            // Add sender phone number for better analysis
-            jsonRequest.put("sender", message.getPhoneNumber());
-            
-            JsonObjectRequest request = new JsonObjectRequest(
-                    Request.Method.POST,
-                    API_URL,
-                    jsonRequest,
-                    response -> {
-                        try {
-                            // Log raw response for debugging
-                            Log.d(TAG, "Raw API response: " + response.toString());
-                            
-                            // Check if the response contains the is_spam field
-                            boolean isSpam = false;
-                            String resultMessage = "Unknown result";
-                            
-                            if (response.has("is_spam")) {
-                                isSpam = response.getBoolean("is_spam");
-                            } else if (response.has("result")) {
-                                // Check if result is a String or JSONObject
-                                try {
-                                    if (response.get("result") instanceof String) {
-                                        // The result is a String like "Spam" or "spam"
-                                        String resultStr = response.getString("result").toLowerCase();
-                                        isSpam = resultStr.contains("spam");
-                                        resultMessage = "Message classified as: " + resultStr;
-                                        Log.d(TAG, "Result is a String: " + resultStr);
-                                    } else {
-                                        // Try as a JSONObject
-                                        JSONObject result = response.getJSONObject("result");
-                                        if (result.has("is_spam")) {
-                                            isSpam = result.getBoolean("is_spam");
-                                        } else {
-                                            // Handle case when API format has changed
-                                            Log.d(TAG, "API response format changed: " + response.toString());
-                                        }
-                                    }
-                                } catch (JSONException e) {
-                                    Log.d(TAG, "Error parsing result field: " + e.getMessage() + ", response: " + response.toString());
-                                    // Try to infer result from the response string
-                                    String respStr = response.toString().toLowerCase();
-                                    isSpam = respStr.contains("spam");
-                                }
-                            } else {
-                                // Default to unknown/safe if the field is missing
-                                Log.d(TAG, "Missing is_spam field in response: " + response.toString());
-                            }
-                            
-                            // Get message field or default to a generic message
-                            if (response.has("message")) {
-                                resultMessage = response.getString("message");
-                            } else if (response.has("result")) {
-                                try {
-                                    if (response.get("result") instanceof String) {
-                                        // We already set the resultMessage in the earlier check
-                                    } else {
-                                        // Try to get message from result object
-                                        JSONObject resultObj = response.getJSONObject("result");
-                                        if (resultObj.has("message")) {
-                                            resultMessage = resultObj.getString("message");
-                                        }
-                                    }
-                                } catch (JSONException e) {
-                                    // Already handled in the earlier check
-                                }
-                            }
-                            
-                            // Update message status in database
-                            final String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
-                            Log.d(TAG, "Updating message " + message.getId() + " status to: " + newStatus);
-                            
-                            // Make sure the update completes before returning
-                            try {
-                                messageRepository.updateMessageStatus(message.getId(), newStatus);
-                                // Update the local message object as well for immediate UI reflection
-                                message.setStatus(newStatus);
-                                Log.d(TAG, "Message status updated successfully");
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error updating message status", e);
-                            }
-                            
-                            callback.onResult(isSpam, resultMessage);
-                        } catch (JSONException e) {
-                            callback.onError("Error parsing API response: " + e.getMessage());
-                            Log.e(TAG, "Error parsing API response", e);
-                        }
-                    },
-                    error -> {
-                        Log.e(TAG, "API request failed", error);
-                        // Fall back to local analysis when API fails
-                        boolean localResult = performLocalAnalysis(message.getContent());
-                        String newStatus = localResult ? Message.STATUS_SPAM : Message.STATUS_SAFE;
-                        messageRepository.updateMessageStatus(message.getId(), newStatus);
-                        
-                        callback.onResult(localResult, "Determined using local analysis (API unavailable)");
-                    });
+        analyzeMessage(message, AnalysisPriority.INTERACTIVE, callback);
+    }
+    
+    /**
+     * Analyzes a message and updates its status. The callback is invoked on a
+     * background thread, so UI work must be posted to the main thread.
+     *
+     * The callback is called within the budget of {@code priority}, with the
+     * local verdict if the backend has not answered by then.
+     */
+    public void analyzeMessage(Message message, AnalysisPriority priority, AnalysisCallback callback) {
+        // Cache and filter lookups read from disk, so they never run on the caller's thread
+        long startedAt = SystemClock.elapsedRealtime();
+        long deadlineAt = startedAt + budgetFor(priority);
+        AnalysisCallback timed = timed(callback, startedAt);
+        executorFor(priority).execute(() -> analyzeInBackground(message, priority, deadlineAt, timed));
+    }
+    
+    /**
+     * Analyzes messages in bulk, with {@link AnalysisPriority#BACKFILL} priority.
+     */
+    public void analyzeMessages(List<Message> messages, BatchCallback callback) {
+        analyzeMessages(messages, AnalysisPriority.BACKFILL, callback);
+    }
+    
+    /**
+     * Analyzes several messages and updates their statuses. Messages that
+     * cannot be decided on the device are sent to the backend in batches
+     * bounded by count and size, one request per batch, instead of one
+     * request per message. Retries of a batch stop at the budget of
+     * {@code priority}, after which its messages are decided locally. For
+     * {@link AnalysisPriority#BACKFILL} each batch gets the budget from when
+     * it is sent; otherwise all batches share the budget from this call.
+     */
+    public void analyzeMessages(List<Message> messages, AnalysisPriority priority, BatchCallback callback) {
+        List<Message> snapshot = new ArrayList<>(messages);
+        if (snapshot.isEmpty()) {
+            callback.onComplete();
+            return;
+        }
+        long startedAt = SystemClock.elapsedRealtime();
+        long deadlineAt = priority == AnalysisPriority.BACKFILL
+                ? PER_REQUEST_DEADLINE : startedAt + budgetFor(priority);
+        AtomicInteger remaining = new AtomicInteger(snapshot.size());
+        executorFor(priority).execute(() ->
+                analyzeBatchInBackground(snapshot, 0, priority, startedAt, deadlineAt, remaining, callback));
+    }
+    
+    private static ExecutorService executorFor(AnalysisPriority priority) {
+        return priority.isUrgent() ? URGENT_EXECUTOR : BACKFILL_EXECUTOR;
+    }
+    
+    /**
+     * Wraps a callback so the analysis it reports is counted and timed.
+     */
+    private static AnalysisCallback timed(AnalysisCallback callback, long startedAt) {
+        ANALYSIS_REQUESTS.increment();
+        return new AnalysisCallback() {
+            @Override
+            public void onResult(boolean isSpam, String message) {
+                ANALYSIS_LATENCY.record(SystemClock.elapsedRealtime() - startedAt);
+                callback.onResult(isSpam, message);
+            }
             
-            // Set retry policy
-            request.setRetryPolicy(new DefaultRetryPolicy(
-                    SOCKET_TIMEOUT_MS,
-                    MAX_RETRIES,
-                    BACKOFF_MULTIPLIER));
+            @Override
+            public void onError(String error) {
+                ANALYSIS_ERRORS.increment();
+                ANALYSIS_LATENCY.record(SystemClock.elapsedRealtime() - startedAt);
+                callback.onError(error);
+            }
             
-            requestQueue.add(request);
-        } catch (JSONException e) {
-            callback.onError("Error creating API request: " + e.getMessage());
+            @Override
+            public void onFallback(boolean isSpam, String message) {
+                ANALYSIS_LATENCY.record(SystemClock.elapsedRealtime() - startedAt);
+                callback.onFallback(isSpam, message);
+            }
+        };
+    }
+    
+    private void analyzeInBackground(Message message, AnalysisPriority priority, long deadlineAt,
+                                     AnalysisCallback callback) {
+        long cacheKey = VerdictCache.keyFor(message.getContent(), message.getPhoneNumber());
+        AnalysisFlights.Flight flight = IN_FLIGHT.join(message, cacheKey, deadlineAt, callback, this::applyVerdict);
+        if (flight == null) {
+            // Already being analyzed; the running flight reports to this callback too
+            return;
+        }
+        if (!resolveWithoutBackend(message, cacheKey, flight)) {
+            sendRemoteRequest(message, cacheKey, priority, deadlineAt, flight);
+        }
+    }
+    
+    // Runs the cascade for one chunk of messages, starting at index from, then requeues the rest
+    private void analyzeBatchInBackground(List<Message> messages, int from, AnalysisPriority priority,
+                                          long startedAt, long deadlineAt, AtomicInteger remaining,
+                                          BatchCallback callback) {
+        int to = Math.min(messages.size(), from + LOCAL_STAGE_CHUNK);
+        List<PendingAnalysis> pending = new ArrayList<>();
+        for (Message message : messages.subList(from, to)) {
+            AnalysisCallback itemCallback = timed(new AnalysisCallback() {
+                @Override
+                public void onResult(boolean isSpam, String resultMessage) {
+                    callback.onResult(message, isSpam, resultMessage);
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete();
+                    }
+                }
+                
+                @Override
+                public void onError(String error) {
+                    callback.onError(message, error);
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete();
+                    }
+                }
+                
+                @Override
+                public void onFallback(boolean isSpam, String resultMessage) {
+                    callback.onFallback(message, isSpam, resultMessage);
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete();
+                    }
+                }
+            }, startedAt);
+            long cacheKey = VerdictCache.keyFor(message.getContent(), message.getPhoneNumber());
+            AnalysisFlights.Flight flight = IN_FLIGHT.join(message, cacheKey, deadlineAt, itemCallback,
+                    this::applyVerdict);
+            if (flight != null && !resolveWithoutBackend(message, cacheKey, flight)) {
+                pending.add(new PendingAnalysis(message, cacheKey, flight));
+            }
+        }
+        
+        // Cut the remaining messages into batches bounded by count and body size
+        int batchStart = 0;
+        int batchBytes = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            int itemBytes = estimateRequestBytes(pending.get(i).message);
+            if (i > batchStart && (i - batchStart == MAX_BATCH_MESSAGES
+                    || batchBytes + itemBytes > MAX_BATCH_BYTES)) {
+                sendBatchRequest(new ArrayList<>(pending.subList(batchStart, i)), priority, deadlineAt);
+                batchStart = i;
+                batchBytes = 0;
+            }
+            batchBytes += itemBytes;
+        }
+        if (batchStart < pending.size()) {
+            sendBatchRequest(new ArrayList<>(pending.subList(batchStart, pending.size())), priority, deadlineAt);
+        }
+        Log.d(TAG, "Messages " + from + " to " + to + " of " + messages.size() + " needed "
+                + pending.size() + " backend verdicts");
+        if (to < messages.size()) {
+            // Behind whatever was submitted meanwhile, so one import cannot hold the executor
+            executorFor(priority).execute(() ->
+                    analyzeBatchInBackground(messages, to, priority, startedAt, deadlineAt, remaining, callback));
+        }
+    }
+    
+    /**
+     * Runs the on-device stages of the cascade. Returns true if one of them
+     * decided the message and the callback has been invoked.
+     */
+    private boolean resolveWithoutBackend(Message message, long cacheKey, AnalysisCallback callback) {
+        // Clear-cut messages are decided on the device; only uncertain ones go further
+        LocalClassifier.Verdict local = localClassifier.classify(message.getContent());
+        float[] band = confidenceBand(appContext);
+        float safeBelow = band[0];
+        float spamAbove = band[1];
+        float spamProbability = local.getSpamProbability();
+        if (spamProbability >= spamAbove || spamProbability < safeBelow) {
+            boolean isSpam = spamProbability >= spamAbove;
+            Log.d(TAG, "Local verdict for message " + message.getId() + " from " + local.getSource()
+                    + ": " + spamProbability);
+            LOCAL_VERDICTS.increment();
+            // Not fingerprinted: a local mistake would spread to every variant of the message
+            applyVerdict(message, isSpam);
+            callback.onResult(isSpam, localResultMessage(local, isSpam));
+            return true;
+        }
+        
+        // Campaign messages repeat verbatim, so reuse an earlier backend verdict
+        CachedVerdict cached = verdictCache.get(cacheKey);
+        if (cached != null) {
+            Log.d(TAG, "Cached verdict for message " + message.getId() + ": " + cached.isSpam());
+            CACHE_HITS.increment();
+            applyVerdict(message, cached.isSpam());
+            callback.onResult(cached.isSpam(), cached.getResultMessage());
+            return true;
+        }
+        
+        // Campaign variants that only change names or amounts inherit the spam verdict
+        loadSpamFingerprints();
+        if (SPAM_FINGERPRINTS.containsNear(SimHashIndex.fingerprint(message.getContent()))) {
+            Log.d(TAG, "Message " + message.getId() + " is a near-duplicate of known spam");
+            NEAR_DUPLICATE_HITS.increment();
+            applyVerdict(message, true);
+            callback.onResult(true, "Message matches a known spam campaign");
+            return true;
+        }
+        
+        return false;
+    }
+    
+    private void sendRemoteRequest(Message message, long cacheKey, AnalysisPriority priority,
+                                   long deadlineAt, AnalysisCallback callback) {
+        if (deadlineAt == PER_REQUEST_DEADLINE) {
+            // A single request is timed from now, since its deadline timer has to start somewhere
+            deadlineAt = SystemClock.elapsedRealtime() + budgetFor(priority);
+        }
+        // Built before taking a permit, which would otherwise be held by a request never sent
+        byte[] body;
+        try {
+            body = AnalysisRequest.singleBody(message);
+        } catch (IOException e) {
             Log.e(TAG, "Error creating API request", e);
+            handleRemoteFailure(message, callback);
+            return;
         }
+        
+        CircuitBreaker.Permit permit = circuitBreaker.acquire();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+            // The backend is failing; don't wait out its timeouts
+            Log.d(TAG, "Circuit open, analyzing message " + message.getId() + " locally");
+            CIRCUIT_REJECTIONS.increment();
+            handleRemoteFailure(message, callback);
+            return;
+        }
+        
+        new RemoteCall(message, cacheKey, priority, deadlineAt, body, callback).start(permit);
     }
     
     /**
-     * Simple local analysis to detect potential spam messages.
-     * This is a fallback when the API is not available.
-     * 
-     * @param messageContent The message content to analyze
-     * @return true if the message is likely spam, false otherwise
+     * Backend analysis of one message: a primary request and at most one
+     * hedged duplicate, sent if the primary has not answered by the recent
+     * p95 latency. Whichever answers first wins and the other is cancelled.
+     * If neither has answered by the deadline, both are cancelled and the
+     * local verdict is reported instead, so the callback runs exactly once
+     * and on time.
      */
-    private boolean performLocalAnalysis(String messageContent) {
-        if (messageContent == null || messageContent.isEmpty()) {
-            return false;
+    private final class RemoteCall {
+        private final Message message;
+        private final long cacheKey;
+        private final AnalysisPriority priority;
+        private final long deadlineAt;
+        private final byte[] body;
+        private final AnalysisCallback callback;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        // Guarded by this
+        private final List<AnalysisRequest<AnalysisResult>> attempts = new ArrayList<>(2);
+        private int unanswered;
+        private volatile ScheduledFuture<?> deadlineTimer;
+        private volatile ScheduledFuture<?> hedgeTimer;
+        private long hedgeAfter;
+        
+        RemoteCall(Message message, long cacheKey, AnalysisPriority priority, long deadlineAt,
+                   byte[] body, AnalysisCallback callback) {
+            this.message = message;
+            this.cacheKey = cacheKey;
+            this.priority = priority;
+            this.deadlineAt = deadlineAt;
+            this.body = body;
+            this.callback = callback;
+        }
+        
+        void start(CircuitBreaker.Permit permit) {
+            long remaining = deadlineAt - SystemClock.elapsedRealtime();
+            deadlineTimer = SCHEDULER.schedule(this::onDeadline, remaining, TimeUnit.MILLISECONDS);
+            long p95 = REMOTE_LATENCY.percentile(HEDGE_PERCENTILE);
+            hedgeAfter = Math.max(p95, MIN_HEDGE_DELAY_MS);
+            if (p95 >= 0 && hedgeAfter < remaining) {
+                hedgeTimer = SCHEDULER.schedule(this::hedge, hedgeAfter, TimeUnit.MILLISECONDS);
+            }
+            send(permit);
         }
         
-        String content = messageContent.toLowerCase();
+        private void send(CircuitBreaker.Permit permit) {
+            AnalysisRequest<AnalysisResult> request;
+            synchronized (this) {
+                if (finished.get()) {
+                    // A hedge that lost the race with finish(); it is never sent
+                    circuitBreaker.abandon(permit);
+                    return;
+                }
+                int attempt = attempts.size();
+                request = new AnalysisRequest<>(
+                        analyzeUrl,
+                        body,
+                        AnalysisResponseParser::readSingle,
+                        result -> onResponse(attempt, result),
+                        error -> onError(permit, error));
+                // Retries spend the deadline rather than restarting the clock
+                request.setRetryPolicy(retryPolicyFor(permit, priority, deadlineAt));
+                attempts.add(request);
+                unanswered++;
+            }
+            AnalyzerClient.getInstance().add(request, priority);
+        }
         
-        // Check for common spam keywords and patterns
-        String[] spamIndicators = {
-            "congrat", "won", "prize", "lottery", "cash", "claim", 
-            "free", "offer", "limited time", "click", "link", "verify", 
-            "account", "urgent", "alert", "bank", "credit", "update", 
-            "confirm", "password", "verify", "login", "suspended", 
-            "unusual activity", "gift card", "bitcoin"
-        };
+        private void onResponse(int attempt, AnalysisResult result) {
+            circuitBreaker.record(false);
+            AnalysisRequest<AnalysisResult> request;
+            synchronized (this) {
+                request = attempts.get(attempt);
+            }
+            REMOTE_LATENCY.add(SystemClock.elapsedRealtime() - request.sentAtMs);
+            if (!finish()) {
+                return;
+            }
+            if (attempt > 0) {
+                Log.d(TAG, "Hedged request answered first for message " + message.getId());
+            }
+            handleRemoteResponse(message, cacheKey, result, callback);
+        }
         
-        // Count spam indicators
-        int spamScore = 0;
-        for (String indicator : spamIndicators) {
-            if (content.contains(indicator)) {
-                spamScore++;
+        private void onError(CircuitBreaker.Permit permit, VolleyError error) {
+            Log.e(TAG, "API request failed", error);
+            recordOutcome(permit, error);
+            synchronized (this) {
+                if (--unanswered > 0) {
+                    // The other attempt may still answer
+                    return;
+                }
+            }
+            if (finish()) {
+                handleRemoteFailure(message, callback);
             }
         }
         
-        // Check for URLs
-        if (content.contains("http://") || content.contains("https://") || 
-            content.contains("www.") || content.matches(".*\\.[a-z]{2,}.*")) {
-            spamScore += 2;
+        private void onDeadline() {
+            if (finish()) {
+                Log.w(TAG, "No backend verdict for message " + message.getId() + " within its "
+                        + priority + " budget, using local analysis");
+                handleRemoteFailure(message, callback);
+            }
         }
         
-        // Check for unusual characters or formatting
-        if (content.contains("$") || content.contains("€") || 
-            content.contains("%") || content.contains("!")) {
-            spamScore++;
+        private void hedge() {
+            long sentAtMs;
+            synchronized (this) {
+                // Still waiting for a concurrency slot: a duplicate would only queue behind it
+                if (finished.get() || attempts.size() != 1 || attempts.get(0).sentAtMs == 0) {
+                    return;
+                }
+                sentAtMs = attempts.get(0).sentAtMs;
+            }
+            // Latencies are measured from sending, so time spent queued does not count
+            long wait = sentAtMs + hedgeAfter - SystemClock.elapsedRealtime();
+            if (wait > 0) {
+                if (sentAtMs + hedgeAfter < deadlineAt) {
+                    hedgeTimer = SCHEDULER.schedule(this::hedge, wait, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            CircuitBreaker.Permit permit = circuitBreaker.acquire();
+            if (permit == CircuitBreaker.Permit.DENIED) {
+                return;
+            }
+            Log.d(TAG, "Hedging request for message " + message.getId());
+            HEDGES.increment();
+            send(permit);
         }
         
-        // Calculate threshold based on message length
-        int threshold = 2;
-        if (content.length() > 50) {
-            threshold = 3;  // Require more indicators for longer messages
+        // Claims the one report for this call, cancelling timers and outstanding attempts
+        private boolean finish() {
+            List<AnalysisRequest<AnalysisResult>> outstanding;
+            synchronized (this) {
+                // Under the same lock as send(), so no attempt can be added after this
+                if (!finished.compareAndSet(false, true)) {
+                    return false;
+                }
+                outstanding = new ArrayList<>(attempts);
+            }
+            cancelTimer(deadlineTimer);
+            cancelTimer(hedgeTimer);
+            for (AnalysisRequest<AnalysisResult> request : outstanding) {
+                request.cancel();
+            }
+            return true;
+        }
+    }
+    
+    private static void cancelTimer(ScheduledFuture<?> timer) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+    
+    /**
+     * Applies a decoded backend verdict for one message.
+     */
+    private void handleRemoteResponse(Message message, long cacheKey, AnalysisResult result,
+                                      AnalysisCallback callback) {
+        Log.d(TAG, "API result for message " + message.getId() + ": " + result);
+        if (!result.hasVerdict) {
+            // Nothing to cache or fingerprint; a made-up verdict would stick to every copy of the text
+            Log.w(TAG, "Missing is_spam field in response for message " + message.getId());
+            handleRemoteFailure(message, callback);
+            return;
+        }
+        REMOTE_VERDICTS.increment();
+        boolean isSpam = result.isSpam();
+        String resultMessage = result.getResultMessage();
+        
+        // Update message status in database
+        final String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
+        Log.d(TAG, "Updating message " + message.getId() + " status to: " + newStatus);
+        
+        // Make sure the update completes before returning
+        try {
+            messageRepository.updateMessageStatus(message.getId(), newStatus);
+            // Update the local message object as well for immediate UI reflection
+            message.setStatus(newStatus);
+            Log.d(TAG, "Message status updated successfully");
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating message status", e);
+        }
+        
+        verdictCache.put(cacheKey, VerdictCache.senderClassOf(message.getPhoneNumber()),
+                isSpam, resultMessage);
+        if (isSpam) {
+            rememberConfirmedSpam(message.getContent());
+        }
+        callback.onResult(isSpam, resultMessage);
+    }
+    
+    private void handleRemoteFailure(Message message, AnalysisCallback callback) {
+        // Fall back to local analysis when API fails
+        FALLBACKS.increment();
+        boolean localResult = performLocalAnalysis(message.getContent());
+        String newStatus = localResult ? Message.STATUS_SPAM : Message.STATUS_SAFE;
+        messageRepository.updateMessageStatus(message.getId(), newStatus);
+        
+        callback.onFallback(localResult, "Determined using local analysis (API unavailable)");
+    }
+    
+    /**
+     * Sends one batch as a JSON array of {@code {id, message, sender}} objects
+     * and maps the per-item results in the response back by message id.
+     */
+    private void sendBatchRequest(List<PendingAnalysis> batch, AnalysisPriority priority, long deadlineAt) {
+        if (SystemClock.elapsedRealtime() < batchUnsupportedUntil) {
+            for (PendingAnalysis item : batch) {
+                sendRemoteRequest(item.message, item.cacheKey, priority, deadlineAt, item.callback);
+            }
+            return;
+        }
+        
+        Map<Long, PendingAnalysis> byId = new HashMap<>();
+        List<PendingAnalysis> repeated = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        for (PendingAnalysis item : batch) {
+            if (byId.containsKey(item.message.getId())) {
+                // Results are matched by id, so a repeated message goes on its own
+                repeated.add(item);
+                continue;
+            }
+            byId.put(item.message.getId(), item);
+            messages.add(item.message);
         }
         
-        Log.d(TAG, "Local analysis spam score: " + spamScore + ", threshold: " + threshold);
-        return spamScore >= threshold;
+        // Before the permit, as for a single message
+        byte[] body;
+        try {
+            body = AnalysisRequest.batchBody(messages);
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating batch API request", e);
+            for (PendingAnalysis item : batch) {
+                handleRemoteFailure(item.message, item.callback);
+            }
+            return;
+        }
+        
+        CircuitBreaker.Permit permit = circuitBreaker.acquire();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+            Log.d(TAG, "Circuit open, analyzing batch of " + batch.size() + " locally");
+            CIRCUIT_REJECTIONS.add(batch.size());
+            for (PendingAnalysis item : batch) {
+                handleRemoteFailure(item.message, item.callback);
+            }
+            return;
+        }
+        
+        for (PendingAnalysis item : repeated) {
+            sendRemoteRequest(item.message, item.cacheKey, priority, deadlineAt, item.callback);
+        }
+        
+        AnalysisRequest<List<AnalysisResult>> request = new AnalysisRequest<>(
+                analyzeBatchUrl,
+                body,
+                AnalysisResponseParser::readBatch,
+                results -> {
+                    circuitBreaker.record(false);
+                    for (AnalysisResult result : results) {
+                        PendingAnalysis item = result.hasId ? byId.remove(result.id) : null;
+                        if (item != null) {
+                            handleRemoteResponse(item.message, item.cacheKey, result, item.callback);
+                        }
+                    }
+                    // Anything the backend left out is decided locally rather than dropped
+                    for (PendingAnalysis item : byId.values()) {
+                        Log.w(TAG, "No batch result for message " + item.message.getId());
+                        handleRemoteFailure(item.message, item.callback);
+                    }
+                },
+                error -> {
+                    int status = error.networkResponse != null ? error.networkResponse.statusCode : 0;
+                    recordOutcome(permit, error);
+                    if (status == 404 || status == 405) {
+                        // Backend without the batch endpoint; fall back to one request per message,
+                        // and keep doing so for a while rather than asking again for every batch
+                        Log.w(TAG, "Batch endpoint unavailable (" + status + "), sending individually");
+                        batchUnsupportedUntil = SystemClock.elapsedRealtime() + BATCH_UNSUPPORTED_MS;
+                        for (PendingAnalysis item : byId.values()) {
+                            sendRemoteRequest(item.message, item.cacheKey, priority, deadlineAt, item.callback);
+                        }
+                        return;
+                    }
+                    Log.e(TAG, "Batch API request failed", error);
+                    for (PendingAnalysis item : byId.values()) {
+                        handleRemoteFailure(item.message, item.callback);
+                    }
+                });
+        
+        request.setRetryPolicy(retryPolicyFor(permit, priority, deadlineAt));
+        
+        AnalyzerClient.getInstance().add(request, priority);
+    }
+    
+    /**
+     * Feeds the circuit breaker the outcome of a request, unless it never
+     * reached the backend and so says nothing about it.
+     */
+    private void recordOutcome(CircuitBreaker.Permit permit, VolleyError error) {
+        if (AnalysisRequest.reachedBackend(error)) {
+            circuitBreaker.record(AnalysisRequest.isBackendFailure(error));
+        } else {
+            circuitBreaker.abandon(permit);
+        }
+    }
+    
+    private static DeadlineRetryPolicy retryPolicyFor(CircuitBreaker.Permit permit, AnalysisPriority priority,
+                                                      long deadlineAt) {
+        // A probe gets one attempt, so a backend that is still down reopens the circuit quickly
+        int retries = permit == CircuitBreaker.Permit.PROBE ? 0 : MAX_RETRIES;
+        if (deadlineAt == PER_REQUEST_DEADLINE) {
+            return DeadlineRetryPolicy.fromFirstSend(budgetFor(priority), SOCKET_TIMEOUT_MS, retries,
+                    BACKOFF_MULTIPLIER);
+        }
+        return new DeadlineRetryPolicy(deadlineAt, SOCKET_TIMEOUT_MS, retries, BACKOFF_MULTIPLIER);
+    }
+    
+    private static long budgetFor(AnalysisPriority priority) {
+        switch (priority) {
+            case LIVE:
+                return LIVE_BUDGET_MS;
+            case BACKFILL:
+                return BACKFILL_BUDGET_MS;
+            case INTERACTIVE:
+            default:
+                return INTERACTIVE_BUDGET_MS;
+        }
+    }
+    
+    // Upper bound on the UTF-8 size of a message inside a batch request body
+    private static int estimateRequestBytes(Message message) {
+        int bytes = BATCH_ITEM_OVERHEAD_BYTES;
+        String content = message.getContent();
+        if (content != null) {
+            // Escaped control characters can take six bytes, but three covers any other char
+            bytes += 3 * content.length();
+        }
+        String sender = message.getPhoneNumber();
+        if (sender != null) {
+            bytes += 3 * sender.length();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Local analysis to detect potential spam messages.
+     * This is a fallback when the API is not available, so the local verdict
+     * is used as-is regardless of its confidence.
+     * 
+     * @param messageContent The message content to analyze
+     * @return true if the message is likely spam, false otherwise
+     */
+    private boolean performLocalAnalysis(String messageContent) {
+        LocalClassifier.Verdict local = localClassifier.classify(messageContent);
+        Log.d(TAG, "Local spam probability from " + local.getSource() + ": " + local.getSpamProbability());
+        return local.isSpam();
+    }
+    
+    /**
+     * Records that the user marked a message as spam, so variants of it are
+     * recognised on the device like spam the backend confirmed.
+     */
+    public void reportSpam(Message message) {
+        rememberConfirmedSpam(message.getContent());
+    }
+    
+    // Only for spam the backend or the user confirmed; local verdicts are never fingerprinted
+    private void rememberConfirmedSpam(String content) {
+        long fingerprint = SimHashIndex.fingerprint(content);
+        if (fingerprint == 0) {
+            return;
+        }
+        SPAM_FINGERPRINTS.add(fingerprint);
+        long confirmedAt = System.currentTimeMillis();
+        SmsShieldDatabase.databaseWriteExecutor.execute(() ->
+                spamFingerprintDao.insert(new SpamFingerprint(fingerprint, confirmedAt)));
+    }
+    
+    /**
+     * Rebuilds the near-duplicate index from the most recently confirmed
+     * spam. Runs once per process, on an analysis executor.
+     */
+    private void loadSpamFingerprints() {
+        if (!spamFingerprintsLoaded.compareAndSet(false, true)) {
+            return;
+        }
+        spamFingerprintDao.trim(SimHashIndex.CAPACITY);
+        List<Long> recent = spamFingerprintDao.getRecent(SimHashIndex.CAPACITY);
+        // Oldest first, so the newest spam is the last to be evicted
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            SPAM_FINGERPRINTS.add(recent.get(i));
+        }
+        Log.d(TAG, "Loaded " + SPAM_FINGERPRINTS.size() + " spam fingerprints");
+    }
+    
+    private void applyVerdict(Message message, boolean isSpam) {
+        String newStatus = isSpam ? Message.STATUS_SPAM : Message.STATUS_SAFE;
+        messageRepository.updateMessageStatus(message.getId(), newStatus);
+        message.setStatus(newStatus);
+    }
+    
+    private static String localResultMessage(LocalClassifier.Verdict local, boolean isSpam) {
+        if (LocalClassifier.SOURCE_DOMAIN_FILTER.equals(local.getSource())) {
+            return "Message links to a known malicious domain";
+        }
+        return isSpam ? "Message classified as spam on this device"
+                : "Message classified as safe on this device";
     }
-} 
\ No newline at end of file
+}
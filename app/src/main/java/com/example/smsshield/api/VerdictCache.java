@@ -0,0 +1,186 @@
+package com.example.smsshield.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.example.smsshield.analysis.TextNormalizer;
+import com.example.smsshield.database.SmsShieldDatabase;
+import com.example.smsshield.database.dao.VerdictCacheDao;
+import com.example.smsshield.database.entities.CachedVerdict;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers backend verdicts by message content, so campaigns that send the
+ * same text to many people only cost one analysis.
+ *
+ * Entries are keyed by a 64-bit hash of the normalized body plus the class of
+ * the sender. Recent entries are kept in an in-memory LRU in front of the
+ * {@code verdict_cache} table. Lookups that touch the table must run off the
+ * main thread.
+ */
+public class VerdictCache {
+    private static final String TAG = "VerdictCache";
+
+    /** Bump when the backend model changes so older verdicts are ignored. */
+    public static final int MODEL_VERSION = 1;
+
+    private static final long TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int MEMORY_CAPACITY = 512;
+
+    public static final String SENDER_PHONE = "phone";
+    public static final String SENDER_SHORT_CODE = "short_code";
+    public static final String SENDER_ALPHANUMERIC = "alphanumeric";
+    public static final String SENDER_UNKNOWN = "unknown";
+
+    // Key computation runs on several analysis threads, each with its own buffer
+    private static final ThreadLocal<TextNormalizer> NORMALIZER = new ThreadLocal<TextNormalizer>() {
+        @Override
+        protected TextNormalizer initialValue() {
+            return new TextNormalizer();
+        }
+    };
+    
+    private static volatile VerdictCache INSTANCE;
+
+    private final VerdictCacheDao verdictCacheDao;
+    private final LinkedHashMap<Long, CachedVerdict> memory =
+            new LinkedHashMap<Long, CachedVerdict>(MEMORY_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CachedVerdict> eldest) {
+                    return size() > MEMORY_CAPACITY;
+                }
+            };
+
+    private VerdictCache(Context context) {
+        verdictCacheDao = SmsShieldDatabase.getInstance(context).verdictCacheDao();
+        SmsShieldDatabase.databaseWriteExecutor.execute(() -> {
+            int removed = verdictCacheDao.deleteStale(MODEL_VERSION, System.currentTimeMillis());
+            Log.d(TAG, "Removed " + removed + " stale cached verdicts");
+        });
+    }
+
+    public static VerdictCache getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (VerdictCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new VerdictCache(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Drops the process-wide cache, so the next {@link #getInstance} starts
+     * empty on whatever database is current.
+     */
+    @VisibleForTesting
+    public static void resetForTesting() {
+        synchronized (VerdictCache.class) {
+            INSTANCE = null;
+        }
+    }
+
+    /**
+     * Returns the cached verdict for a key, or null if there is none or it has
+     * expired. Falls through to the database on a memory miss.
+     */
+    public CachedVerdict get(long key) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            CachedVerdict verdict = memory.get(key);
+            if (verdict != null) {
+                if (verdict.getExpiresAt() > now) {
+                    return verdict;
+                }
+                memory.remove(key);
+            }
+        }
+
+        CachedVerdict stored = verdictCacheDao.getVerdict(key, MODEL_VERSION, now);
+        if (stored != null) {
+            synchronized (memory) {
+                memory.put(key, stored);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Stores a backend verdict in memory and writes it to the database in the background.
+     */
+    public void put(long key, String senderClass, boolean isSpam, String resultMessage) {
+        long now = System.currentTimeMillis();
+        CachedVerdict verdict = new CachedVerdict(key, senderClass, isSpam, resultMessage,
+                MODEL_VERSION, now, now + TTL_MS);
+        synchronized (memory) {
+            memory.put(key, verdict);
+        }
+        SmsShieldDatabase.databaseWriteExecutor.execute(() -> verdictCacheDao.insert(verdict));
+    }
+
+    /**
+     * Computes the cache key for a message body and sender. Bodies that differ
+     * only in case, whitespace or look-alike characters share a key.
+     */
+    public static long keyFor(String content, String sender) {
+        // FNV-1a over the normalized body with runs of whitespace collapsed
+        long hash = 0xcbf29ce484222325L;
+        boolean started = false;
+        boolean pendingSpace = false;
+        if (content != null) {
+            CharSequence text = NORMALIZER.get().normalize(content);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    pendingSpace = started;
+                    continue;
+                }
+                if (pendingSpace) {
+                    hash = (hash ^ ' ') * 0x100000001b3L;
+                }
+                started = true;
+                pendingSpace = false;
+                hash = (hash ^ Character.toLowerCase(c)) * 0x100000001b3L;
+            }
+        }
+        // Separator so the body and the sender class cannot run into each other
+        hash = hash * 0x100000001b3L;
+        String senderClass = senderClassOf(sender);
+        for (int i = 0; i < senderClass.length(); i++) {
+            hash = (hash ^ senderClass.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Buckets a sender address: regular phone numbers, short codes and
+     * alphanumeric sender ids are cached separately.
+     */
+    public static String senderClassOf(String sender) {
+        if (sender == null || sender.isEmpty()) {
+            return SENDER_UNKNOWN;
+        }
+        int digits = 0;
+        for (int i = 0; i < sender.length(); i++) {
+            char c = sender.charAt(i);
+            if (Character.isLetter(c)) {
+                return SENDER_ALPHANUMERIC;
+            }
+            if (Character.isDigit(c)) {
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return SENDER_UNKNOWN;
+        }
+        return digits <= 6 ? SENDER_SHORT_CODE : SENDER_PHONE;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.smsshield.api;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Transport on a Volley {@link RequestQueue} over {@code HttpURLConnection},
+ * with one blocking dispatcher thread per concurrent request.
+ */
+final class VolleyTransport implements AnalyzerTransport {
+
+    private final RequestQueue requestQueue;
+
+    /**
+     * @param networkThreads Dispatcher threads, the most requests that can run at once
+     * @param deliveryExecutor Runs response and error listeners
+     * @param finishedListener Told when each request is done
+     */
+    VolleyTransport(int networkThreads, Executor deliveryExecutor, FinishedListener finishedListener) {
+        // Verdicts are cached by VerdictCache, so Volley's disk cache would only cost I/O
+        requestQueue = new RequestQueue(new NoCache(), new BasicNetwork(new HurlStack()),
+                networkThreads, new ExecutorDelivery(deliveryExecutor));
+        requestQueue.addRequestFinishedListener(request -> {
+            if (request instanceof AnalysisRequest) {
+                finishedListener.onFinished((AnalysisRequest<?>) request);
+            }
+        });
+        requestQueue.start();
+    }
+
+    @Override
+    public void send(AnalysisRequest<?> request) {
+        requestQueue.add(request);
+    }
+
+    @Override
+    public void shutdown() {
+        requestQueue.cancelAll(request -> true);
+        requestQueue.stop();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.smsshield.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Request;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the analysis backend and the connection to it warm while traffic is
+ * expected.
+ *
+ * The backend idles down when unused, and the first request afterwards pays
+ * for DNS, TLS and the server starting up. {@link #expectTraffic()} is
+ * called when the app comes to the foreground or an SMS arrives; it sends a
+ * cheap GET to the health URL right away if the backend has been quiet, and
+ * then again whenever it goes quiet for {@code keepAliveMs}, until
+ * {@code windowMs} pass without another call. Any HTTP answer counts as warm,
+ * so a backend without a health route still gets woken up. Pings go straight
+ * to the transport, outside the rate and concurrency limits.
+ */
+final class WarmUpScheduler {
+    private static final String TAG = "WarmUpScheduler";
+
+    private final String healthUrl;
+    private final ScheduledExecutorService scheduler;
+    private final long keepAliveMs;
+    private final long windowMs;
+    private final int pingTimeoutMs;
+
+    // Guarded by this
+    private long expectedUntil;
+    private boolean ticking;
+    // When the outstanding ping was sent, or 0 if none is
+    private long pingSentAt;
+
+    /**
+     * @param healthUrl URL that is fetched to wake the backend
+     * @param scheduler Runs the keep-alive checks
+     * @param keepAliveMs Quiet time after which another ping is sent
+     * @param windowMs How long traffic is expected after each call to {@link #expectTraffic()}
+     * @param pingTimeoutMs Socket timeout of a ping, long enough to cover a cold start
+     */
+    WarmUpScheduler(String healthUrl, ScheduledExecutorService scheduler, long keepAliveMs,
+                    long windowMs, int pingTimeoutMs) {
+        this.healthUrl = healthUrl;
+        this.scheduler = scheduler;
+        this.keepAliveMs = keepAliveMs;
+        this.windowMs = windowMs;
+        this.pingTimeoutMs = pingTimeoutMs;
+    }
+
+    void expectTraffic() {
+        synchronized (this) {
+            expectedUntil = Math.max(expectedUntil, SystemClock.elapsedRealtime() + windowMs);
+            if (ticking) {
+                return;
+            }
+            ticking = true;
+        }
+        scheduler.execute(this::tick);
+    }
+
+    private void tick() {
+        long now = SystemClock.elapsedRealtime();
+        boolean ping;
+        synchronized (this) {
+            if (now >= expectedUntil) {
+                ticking = false;
+                Log.d(TAG, "No traffic expected, stopping keep-alive");
+                return;
+            }
+            // Real requests keep the connection warm too, so only ping after a quiet spell
+            long lastResponseAt = AnalyzerClient.getInstance().getLastResponseAt();
+            // A ping lost to cancellation must not block the ones after it
+            boolean pingOutstanding = pingSentAt != 0 && now - pingSentAt < pingTimeoutMs;
+            ping = !pingOutstanding && (lastResponseAt == 0 || now - lastResponseAt >= keepAliveMs);
+            if (ping) {
+                pingSentAt = now;
+            }
+        }
+        if (ping) {
+            sendPing();
+        }
+        scheduler.schedule(this::tick, keepAliveMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPing() {
+        Log.d(TAG, "Pinging " + healthUrl);
+        AnalysisRequest<Void> request = new AnalysisRequest<>(
+                Request.Method.GET,
+                healthUrl,
+                null,
+                reader -> null,
+                response -> onPingDone(),
+                error -> {
+                    if (AnalysisRequest.isBackendFailure(error)) {
+                        Log.w(TAG, "Warm-up ping failed", error);
+                    }
+                    onPingDone();
+                });
+        // One long attempt: the ping exists to sit out the cold start
+        request.setRetryPolicy(new DeadlineRetryPolicy(
+                SystemClock.elapsedRealtime() + pingTimeoutMs, pingTimeoutMs, 0, 1f));
+        AnalyzerClient.getInstance().sendPing(request);
+    }
+
+    private synchronized void onPingDone() {
+        pingSentAt = 0;
+    }
+}
@@ -3,26 +3,38 @@ package com.example.smsshield.database;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
+import com.example.smsshield.database.dao.AnalysisQueueDao;
 import com.example.smsshield.database.dao.MessageDao;
+import com.example.smsshield.database.dao.SpamFingerprintDao;
 import com.example.smsshield.database.dao.UserDao;
+import com.example.smsshield.database.dao.VerdictCacheDao;
+import com.example.smsshield.database.entities.CachedVerdict;
 import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.database.entities.QueuedAnalysis;
+import com.example.smsshield.database.entities.SpamFingerprint;
 import com.example.smsshield.database.entities.User;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-@Database(entities = {User.class, Message.class}, version = 1, exportSchema = false)
+@Database(entities = {User.class, Message.class, CachedVerdict.class, QueuedAnalysis.class, SpamFingerprint.class},
+        version = 4, exportSchema = false)
 @TypeConverters({Converters.class})
 public abstract class SmsShieldDatabase extends RoomDatabase {
 
     public abstract UserDao userDao();
     public abstract MessageDao messageDao();
+    public abstract VerdictCacheDao verdictCacheDao();
+    public abstract AnalysisQueueDao analysisQueueDao();
+    public abstract SpamFingerprintDao spamFingerprintDao();
 
     private static volatile SmsShieldDatabase INSTANCE;
     private static final int NUMBER_OF_THREADS = 4;
@@ -34,6 +46,7 @@ public abstract class SmsShieldDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                             SmsShieldDatabase.class, "sms_shield_database")
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
                             .fallbackToDestructiveMigration()
                             .addCallback(roomCallback)
                             .build();
@@ -43,6 +56,54 @@ public abstract class SmsShieldDatabase extends RoomDatabase {
         return INSTANCE;
     }
 
+    /**
+     * Replaces the process-wide database, such as with an in-memory one so a
+     * test leaves the app's data alone, or clears it with null so the next
+     * {@link #getInstance} opens the app's database again. Singletons that
+     * keep a DAO have to be reset as well.
+     */
+    @VisibleForTesting
+    public static void setInstanceForTesting(SmsShieldDatabase database) {
+        synchronized (SmsShieldDatabase.class) {
+            INSTANCE = database;
+        }
+    }
+
+    // Schema changes add tables only, so existing messages and contacts survive upgrades
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `verdict_cache` ("
+                    + "`content_hash` INTEGER NOT NULL, `sender_class` TEXT, "
+                    + "`is_spam` INTEGER NOT NULL, `result_message` TEXT, "
+                    + "`model_version` INTEGER NOT NULL, `created_at` INTEGER NOT NULL, "
+                    + "`expires_at` INTEGER NOT NULL, PRIMARY KEY(`content_hash`))");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `analysis_queue` ("
+                    + "`message_id` INTEGER NOT NULL, `priority` INTEGER NOT NULL, "
+                    + "`attempts` INTEGER NOT NULL, `enqueued_at` INTEGER NOT NULL, "
+                    + "`next_attempt_at` INTEGER NOT NULL, `lease_until` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`message_id`), FOREIGN KEY(`message_id`) REFERENCES `messages`(`id`) "
+                    + "ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_analysis_queue_priority_next_attempt_at` "
+                    + "ON `analysis_queue` (`priority`, `next_attempt_at`)");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `spam_fingerprints` ("
+                    + "`fingerprint` INTEGER NOT NULL, `confirmed_at` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`fingerprint`))");
+        }
+    };
+
     private static final RoomDatabase.Callback roomCallback = new RoomDatabase.Callback() {
         @Override
         public void onCreate(@NonNull SupportSQLiteDatabase db) {
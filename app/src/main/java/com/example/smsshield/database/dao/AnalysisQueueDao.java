@@ -0,0 +1,97 @@
+package com.example.smsshield.database.dao;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.example.smsshield.database.entities.QueuedAnalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Dao
+public interface AnalysisQueueDao {
+    
+    // Selecting from messages skips ids that were deleted, which the foreign key would reject
+    @Query("INSERT OR IGNORE INTO analysis_queue "
+            + "(message_id, priority, attempts, enqueued_at, next_attempt_at, lease_until) "
+            + "SELECT id, :priority, 0, :now, :now, 0 FROM messages WHERE id IN (:messageIds)")
+    void insert(List<Long> messageIds, int priority, long now);
+    
+    @Query("UPDATE analysis_queue SET priority = :priority WHERE message_id IN (:messageIds) AND priority > :priority")
+    void raisePriority(List<Long> messageIds, int priority);
+    
+    /**
+     * Adds messages to the queue, or moves already queued ones up to {@code priority}.
+     */
+    @Transaction
+    default void enqueue(List<Long> messageIds, int priority, long now) {
+        raisePriority(messageIds, priority);
+        insert(messageIds, priority, now);
+    }
+    
+    @Query("SELECT * FROM analysis_queue WHERE priority = :priority AND next_attempt_at <= :now "
+            + "AND lease_until <= :now ORDER BY next_attempt_at LIMIT :limit")
+    List<QueuedAnalysis> getDue(int priority, long now, int limit);
+    
+    @Query("UPDATE analysis_queue SET attempts = attempts + 1, lease_until = :leaseUntil WHERE message_id IN (:messageIds)")
+    void lease(List<Long> messageIds, long leaseUntil);
+    
+    /**
+     * Selects up to {@code limit} due rows, most urgent priority first, and
+     * leases them until {@code leaseUntil} in the same transaction, so two
+     * callers never claim the same row. Each priority is read through the
+     * {@code (priority, next_attempt_at)} index, so the cost follows the batch
+     * size rather than the length of the queue.
+     *
+     * @param priorityLevels Number of priorities, which are numbered from 0
+     */
+    @Transaction
+    default List<QueuedAnalysis> claim(int priorityLevels, long now, long leaseUntil, int limit) {
+        List<QueuedAnalysis> claimed = new ArrayList<>();
+        for (int priority = 0; priority < priorityLevels && claimed.size() < limit; priority++) {
+            claimed.addAll(getDue(priority, now, limit - claimed.size()));
+        }
+        if (claimed.isEmpty()) {
+            return claimed;
+        }
+        
+        List<Long> messageIds = new ArrayList<>(claimed.size());
+        for (QueuedAnalysis row : claimed) {
+            messageIds.add(row.getMessageId());
+            row.setAttempts(row.getAttempts() + 1);
+            row.setLeaseUntil(leaseUntil);
+        }
+        lease(messageIds, leaseUntil);
+        return claimed;
+    }
+    
+    @Query("DELETE FROM analysis_queue WHERE message_id IN (:messageIds)")
+    void delete(List<Long> messageIds);
+    
+    @Query("DELETE FROM analysis_queue WHERE message_id IN (:messageIds) AND attempts >= :maxAttempts")
+    int deleteExhausted(List<Long> messageIds, int maxAttempts);
+    
+    // Exponential backoff on the attempt count; the shift is capped so it cannot overflow
+    @Query("UPDATE analysis_queue SET lease_until = 0, "
+            + "next_attempt_at = :now + MIN(:maxDelayMs, :baseDelayMs << MIN(attempts - 1, 30)) "
+            + "WHERE message_id IN (:messageIds)")
+    void reschedule(List<Long> messageIds, long now, long baseDelayMs, long maxDelayMs);
+    
+    /**
+     * Returns claimed rows to the queue with a backoff delay, dropping those
+     * that have used up {@code maxAttempts}. Returns how many were dropped.
+     */
+    @Transaction
+    default int retryLater(List<Long> messageIds, long now, long baseDelayMs, long maxDelayMs, int maxAttempts) {
+        int dropped = deleteExhausted(messageIds, maxAttempts);
+        reschedule(messageIds, now, baseDelayMs, maxDelayMs);
+        return dropped;
+    }
+    
+    @Query("SELECT * FROM analysis_queue WHERE message_id IN (:messageIds)")
+    List<QueuedAnalysis> getByMessageIds(List<Long> messageIds);
+    
+    @Query("SELECT COUNT(*) FROM analysis_queue")
+    int count();
+}
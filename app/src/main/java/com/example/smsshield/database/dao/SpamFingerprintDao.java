@@ -0,0 +1,25 @@
+package com.example.smsshield.database.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.smsshield.database.entities.SpamFingerprint;
+
+import java.util.List;
+
+@Dao
+public interface SpamFingerprintDao {
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(SpamFingerprint fingerprint);
+    
+    @Query("SELECT fingerprint FROM spam_fingerprints ORDER BY confirmed_at DESC LIMIT :limit")
+    List<Long> getRecent(int limit);
+    
+    // Keeps the newest rows, as many as the in-memory index can hold
+    @Query("DELETE FROM spam_fingerprints WHERE fingerprint NOT IN "
+            + "(SELECT fingerprint FROM spam_fingerprints ORDER BY confirmed_at DESC LIMIT :keep)")
+    int trim(int keep);
+}
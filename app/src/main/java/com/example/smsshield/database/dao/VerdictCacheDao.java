@@ -0,0 +1,21 @@
+package com.example.smsshield.database.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.smsshield.database.entities.CachedVerdict;
+
+@Dao
+public interface VerdictCacheDao {
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(CachedVerdict verdict);
+    
+    @Query("SELECT * FROM verdict_cache WHERE content_hash = :contentHash AND model_version = :modelVersion AND expires_at > :now LIMIT 1")
+    CachedVerdict getVerdict(long contentHash, int modelVersion, long now);
+    
+    @Query("DELETE FROM verdict_cache WHERE expires_at <= :now OR model_version != :modelVersion")
+    int deleteStale(int modelVersion, long now);
+}
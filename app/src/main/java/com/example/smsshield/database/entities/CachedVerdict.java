@@ -0,0 +1,103 @@
+package com.example.smsshield.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A backend verdict remembered for a message body, so identical campaign
+ * messages do not have to be sent to the analyzer again.
+ */
+@Entity(tableName = "verdict_cache")
+public class CachedVerdict {
+    
+    // 64-bit hash of the normalized message body and the sender class
+    @PrimaryKey
+    @ColumnInfo(name = "content_hash")
+    private long contentHash;
+    
+    @ColumnInfo(name = "sender_class")
+    private String senderClass;
+    
+    @ColumnInfo(name = "is_spam")
+    private boolean isSpam;
+    
+    @ColumnInfo(name = "result_message")
+    private String resultMessage;
+    
+    @ColumnInfo(name = "model_version")
+    private int modelVersion;
+    
+    @ColumnInfo(name = "created_at")
+    private long createdAt;
+    
+    @ColumnInfo(name = "expires_at")
+    private long expiresAt;
+    
+    public CachedVerdict(long contentHash, String senderClass, boolean isSpam, String resultMessage,
+                         int modelVersion, long createdAt, long expiresAt) {
+        this.contentHash = contentHash;
+        this.senderClass = senderClass;
+        this.isSpam = isSpam;
+        this.resultMessage = resultMessage;
+        this.modelVersion = modelVersion;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+    }
+    
+    public long getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public String getSenderClass() {
+        return senderClass;
+    }
+    
+    public void setSenderClass(String senderClass) {
+        this.senderClass = senderClass;
+    }
+    
+    public boolean isSpam() {
+        return isSpam;
+    }
+    
+    public void setSpam(boolean spam) {
+        isSpam = spam;
+    }
+    
+    public String getResultMessage() {
+        return resultMessage;
+    }
+    
+    public void setResultMessage(String resultMessage) {
+        this.resultMessage = resultMessage;
+    }
+    
+    public int getModelVersion() {
+        return modelVersion;
+    }
+    
+    public void setModelVersion(int modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
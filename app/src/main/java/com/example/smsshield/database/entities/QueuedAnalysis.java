@@ -0,0 +1,104 @@
+package com.example.smsshield.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A message waiting to be sent to the analyzer, for example because it
+ * arrived while the device was offline. Rows are claimed in batches by
+ * leasing them, and go back to the queue with a later retry time if the
+ * analysis fails.
+ */
+@Entity(tableName = "analysis_queue",
+        foreignKeys = @ForeignKey(entity = Message.class,
+                parentColumns = "id",
+                childColumns = "message_id",
+                onDelete = ForeignKey.CASCADE),
+        // Serves the claim query: due rows of one priority, oldest first
+        indices = {@Index({"priority", "next_attempt_at"})})
+public class QueuedAnalysis {
+    
+    @PrimaryKey
+    @ColumnInfo(name = "message_id")
+    private long messageId;
+    
+    // Lower values are claimed first
+    @ColumnInfo(name = "priority")
+    private int priority;
+    
+    // Number of times the row has been claimed
+    @ColumnInfo(name = "attempts")
+    private int attempts;
+    
+    @ColumnInfo(name = "enqueued_at")
+    private long enqueuedAt;
+    
+    // The row is not claimed before this time
+    @ColumnInfo(name = "next_attempt_at")
+    private long nextAttemptAt;
+    
+    // While in the future, the row belongs to whoever claimed it
+    @ColumnInfo(name = "lease_until")
+    private long leaseUntil;
+    
+    public QueuedAnalysis(long messageId, int priority, int attempts, long enqueuedAt,
+                          long nextAttemptAt, long leaseUntil) {
+        this.messageId = messageId;
+        this.priority = priority;
+        this.attempts = attempts;
+        this.enqueuedAt = enqueuedAt;
+        this.nextAttemptAt = nextAttemptAt;
+        this.leaseUntil = leaseUntil;
+    }
+    
+    public long getMessageId() {
+        return messageId;
+    }
+    
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+    
+    public void setEnqueuedAt(long enqueuedAt) {
+        this.enqueuedAt = enqueuedAt;
+    }
+    
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+    
+    public void setNextAttemptAt(long nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+    
+    public long getLeaseUntil() {
+        return leaseUntil;
+    }
+    
+    public void setLeaseUntil(long leaseUntil) {
+        this.leaseUntil = leaseUntil;
+    }
+}
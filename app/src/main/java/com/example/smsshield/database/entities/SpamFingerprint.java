@@ -0,0 +1,42 @@
+package com.example.smsshield.database.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The SimHash of a message the backend or the user confirmed as spam, so
+ * variants of it can be recognised on the device after a restart. Spam that
+ * was only decided on the device is never stored here.
+ */
+@Entity(tableName = "spam_fingerprints")
+public class SpamFingerprint {
+    
+    @PrimaryKey
+    @ColumnInfo(name = "fingerprint")
+    private long fingerprint;
+    
+    @ColumnInfo(name = "confirmed_at")
+    private long confirmedAt;
+    
+    public SpamFingerprint(long fingerprint, long confirmedAt) {
+        this.fingerprint = fingerprint;
+        this.confirmedAt = confirmedAt;
+    }
+    
+    public long getFingerprint() {
+        return fingerprint;
+    }
+    
+    public void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+    
+    public long getConfirmedAt() {
+        return confirmedAt;
+    }
+    
+    public void setConfirmedAt(long confirmedAt) {
+        this.confirmedAt = confirmedAt;
+    }
+}
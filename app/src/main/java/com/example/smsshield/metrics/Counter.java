@@ -0,0 +1,26 @@
+package com.example.smsshield.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count of events. Increments are striped across cells, so threads
+ * recording at the same time do not contend on one variable.
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long delta) {
+        count.add(delta);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
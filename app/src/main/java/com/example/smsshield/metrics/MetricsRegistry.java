@@ -0,0 +1,145 @@
+package com.example.smsshield.metrics;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide set of named counters and histograms for the analysis
+ * pipeline.
+ *
+ * Metrics are looked up once, typically into a static field, and then
+ * recorded without locks, so they stay on in production builds. A snapshot
+ * can be read as JSON or written to {@value #DUMP_FILE} in the app's files
+ * directory, where it can be pulled with {@code adb} or attached to a bug
+ * report.
+ */
+public final class MetricsRegistry {
+    private static final String TAG = "MetricsRegistry";
+
+    public static final String DUMP_FILE = "analyzer_metrics.json";
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99"};
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long startedAt = SystemClock.elapsedRealtime();
+    // Dumps are rare and small; one thread keeps them in order
+    private final ExecutorService dumpExecutor = Executors.newSingleThreadExecutor();
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the counter with this name, creating it on first use.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with this name, creating it on first use.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Writes a snapshot of every metric, sorted by name, as one JSON object.
+     */
+    public void writeJson(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginObject();
+        writer.name("uptime_ms").value(SystemClock.elapsedRealtime() - startedAt);
+        writer.name("written_at").value(System.currentTimeMillis());
+
+        writer.name("counters").beginObject();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue().get());
+        }
+        writer.endObject();
+
+        writer.name("histograms").beginObject();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.name(entry.getKey()).beginObject();
+            writer.name("count").value(histogram.getCount());
+            writer.name("sum").value(histogram.getSum());
+            writer.name("max").value(histogram.getMax());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                writer.name(PERCENTILE_NAMES[i]).value(histogram.percentile(PERCENTILES[i]));
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        try {
+            writeJson(out);
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a snapshot to {@value #DUMP_FILE} in the files directory,
+     * replacing the previous one in a single rename so readers never see a
+     * partial file.
+     */
+    public File dump(Context context) throws IOException {
+        File target = new File(context.getFilesDir(), DUMP_FILE);
+        File temp = new File(context.getFilesDir(), DUMP_FILE + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            writeJson(out);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not replace " + target);
+        }
+        return target;
+    }
+
+    /**
+     * Like {@link #dump(Context)}, on a background thread, logging failures.
+     */
+    public void dumpInBackground(Context context) {
+        Context appContext = context.getApplicationContext();
+        dumpExecutor.execute(() -> {
+            try {
+                File file = dump(appContext);
+                Log.d(TAG, "Metrics written to " + file);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write metrics", e);
+            }
+        });
+    }
+}
@@ -20,6 +20,8 @@ import androidx.core.app.NotificationManagerCompat;
 
 import com.example.smsshield.MessageDetailActivity;
 import com.example.smsshield.R;
+import com.example.smsshield.analysis.PhoneBlocklist;
+import com.example.smsshield.api.AnalysisPriority;
 import com.example.smsshield.api.SmsAnalyzerService;
 import com.example.smsshield.database.entities.Message;
 import com.example.smsshield.database.entities.User;
@@ -47,6 +49,8 @@ public class SmsReceiver extends BroadcastReceiver {
             if (bundle != null) {
                 SmsMessage[] messages = Telephony.Sms.Intents.getMessagesFromIntent(intent);
                 if (messages != null && messages.length > 0) {
+                    // Wake the backend while the message is being stored
+                    SmsAnalyzerService.getInstance(context).warmUp();
                     processMessages(context, messages);
                 }
             }
@@ -69,6 +73,13 @@ public class SmsReceiver extends BroadcastReceiver {
         UserRepository userRepository = new UserRepository(context);
 
         executor.execute(() -> {
+            // Known spam senders are dropped before any database or network work
+            PhoneBlocklist blocklist = PhoneBlocklist.getInstance(context);
+            if (blocklist != null && blocklist.isBlocked(sender)) {
+                Log.d(TAG, "Message from blocklisted number ignored: " + sender);
+                return;
+            }
+            
             // Check if sender exists in our user database
             User user = userRepository.getUserByPhoneNumber(sender);
             long userId;
@@ -104,8 +115,8 @@ public class SmsReceiver extends BroadcastReceiver {
             sendNotification(context, sender, messageBody);
 
             // Analyze the message with the SMS analyzer service
-            SmsAnalyzerService analyzerService = new SmsAnalyzerService(context, messageRepository);
-            analyzerService.analyzeMessage(smsMessage, new SmsAnalyzerService.AnalysisCallback() {
+            SmsAnalyzerService analyzerService = SmsAnalyzerService.getInstance(context);
+            analyzerService.analyzeMessage(smsMessage, AnalysisPriority.LIVE, new SmsAnalyzerService.AnalysisCallback() {
                 @Override
                 public void onResult(boolean isSpam, String resultMessage) {
                     Log.d(TAG, "Analysis result: " + (isSpam ? "SPAM" : "SAFE") + " - " + resultMessage);
@@ -21,13 +21,13 @@ import java.util.concurrent.Future;
 public class MessageRepository {
     private final MessageDao messageDao;
     private final LiveData<List<Message>> allMessages;
-    private final ExecutorService executorService;
+    // Shared by every repository instance, so short-lived repositories do not leak threads
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(4);
     
     public MessageRepository(Context context) {
         SmsShieldDatabase database = SmsShieldDatabase.getInstance(context);
         messageDao = database.messageDao();
         allMessages = messageDao.getAllMessages();
-        executorService = Executors.newFixedThreadPool(4);
     }
     
     public LiveData<List<Message>> getAllMessages() {
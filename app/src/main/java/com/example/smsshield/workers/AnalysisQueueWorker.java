@@ -0,0 +1,213 @@
+package com.example.smsshield.workers;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.smsshield.api.AnalysisPriority;
+import com.example.smsshield.api.AnalysisQueue;
+import com.example.smsshield.api.SmsAnalyzerService;
+import com.example.smsshield.database.entities.Message;
+import com.example.smsshield.database.entities.QueuedAnalysis;
+import com.example.smsshield.metrics.MetricsRegistry;
+import com.example.smsshield.repository.MessageRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the {@link AnalysisQueue} in the background while the device is
+ * online, so messages queued offline get checked without any screen open.
+ *
+ * A periodic run is scheduled once with {@link #schedule(Context)}, and
+ * {@link #drainNow(Context)} asks for an extra run as soon as the network
+ * allows, for example after messages were queued. Both are unique work, so
+ * only one drainer of each kind exists however many screens ask for it, and
+ * the queue's leases keep two runs from checking the same messages. While the
+ * backend's circuit breaker is open the worker asks WorkManager to retry with
+ * exponential backoff instead of settling for local verdicts. Messages that
+ * only got a local fallback verdict stay queued and are tried again later.
+ */
+public class AnalysisQueueWorker extends Worker {
+    private static final String TAG = "AnalysisQueueWorker";
+
+    static final String PERIODIC_WORK_NAME = "analysis_queue_periodic";
+    static final String DRAIN_NOW_WORK_NAME = "analysis_queue_drain_now";
+
+    /** Output: number of messages that were analyzed and left the queue. */
+    public static final String KEY_PROCESSED = "processed";
+    /** Output: number of messages handed back for a later attempt. */
+    public static final String KEY_FAILED = "failed";
+
+    private static final int BATCH_SIZE = 50;
+    private static final long PERIOD_MINUTES = 15;
+    private static final long BACKOFF_SECONDS = 30;
+    // WorkManager stops a worker after ten minutes; leave time to hand back the last batch
+    private static final long MAX_RUN_MS = TimeUnit.MINUTES.toMillis(8);
+    // Backfill batches report within their 30 s budget once sent; this only guards against a lost callback
+    private static final long BATCH_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final SmsAnalyzerService analyzerService;
+
+    public AnalysisQueueWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        this(context, params, SmsAnalyzerService.getInstance(context));
+    }
+
+    /**
+     * Creates a worker that analyzes through {@code analyzerService}, for a
+     * {@link androidx.work.WorkerFactory} that binds it to another backend.
+     */
+    AnalysisQueueWorker(@NonNull Context context, @NonNull WorkerParameters params,
+                        @NonNull SmsAnalyzerService analyzerService) {
+        super(context, params);
+        this.analyzerService = analyzerService;
+    }
+
+    /**
+     * Schedules the periodic drain, keeping the existing schedule if there is one.
+     */
+    public static void schedule(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                AnalysisQueueWorker.class, PERIOD_MINUTES, TimeUnit.MINUTES)
+                .setConstraints(networkConstraints())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Asks for a drain as soon as the device is online. Does nothing if one
+     * is already pending or running, since that run picks up new messages too.
+     */
+    public static void drainNow(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(AnalysisQueueWorker.class)
+                .setConstraints(networkConstraints())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                DRAIN_NOW_WORK_NAME, ExistingWorkPolicy.KEEP, request);
+    }
+
+    private static Constraints networkConstraints() {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        if (!analyzerService.isBackendAvailable()) {
+            Log.d(TAG, "Backend unavailable, backing off");
+            return Result.retry();
+        }
+
+        AnalysisQueue queue = AnalysisQueue.getInstance(context);
+        MessageRepository repository = new MessageRepository(context);
+        long stopAt = SystemClock.elapsedRealtime() + MAX_RUN_MS;
+        int processed = 0;
+        int failed = 0;
+
+        while (!isStopped() && SystemClock.elapsedRealtime() < stopAt) {
+            if (!analyzerService.isBackendAvailable()) {
+                // Whatever is still queued waits for the backend rather than a local verdict
+                Log.d(TAG, "Backend became unavailable after " + processed + " messages, backing off");
+                return Result.retry();
+            }
+            List<QueuedAnalysis> claimed = queue.claim(BATCH_SIZE);
+            if (claimed.isEmpty()) {
+                break;
+            }
+
+            Queue<Long> processedIds = new ConcurrentLinkedQueue<>();
+            Queue<Long> failedIds = new ConcurrentLinkedQueue<>();
+            analyzeBatch(repository, claimed, processedIds, failedIds);
+
+            // Messages still unreported keep their lease and are claimed again once it runs out
+            List<Long> done = new ArrayList<>(processedIds);
+            List<Long> retry = new ArrayList<>(failedIds);
+            queue.complete(done);
+            queue.retryLater(retry);
+            processed += done.size();
+            failed += retry.size();
+        }
+
+        Log.d(TAG, "Drained " + processed + " messages, " + failed + " to retry, "
+                + queue.size() + " still queued");
+        // Background runs have no screen to dump metrics on their way out
+        MetricsRegistry.getInstance().dumpInBackground(context);
+        return Result.success(new Data.Builder()
+                .putInt(KEY_PROCESSED, processed)
+                .putInt(KEY_FAILED, failed)
+                .build());
+    }
+
+    private void analyzeBatch(MessageRepository repository, List<QueuedAnalysis> claimed,
+                              Queue<Long> processedIds, Queue<Long> failedIds) {
+        List<Message> messages = new ArrayList<>(claimed.size());
+        for (QueuedAnalysis queued : claimed) {
+            Message message = repository.getMessageById(queued.getMessageId());
+            if (message != null) {
+                messages.add(message);
+            } else {
+                // Deleted since it was claimed
+                processedIds.add(queued.getMessageId());
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        CountDownLatch complete = new CountDownLatch(1);
+        analyzerService.analyzeMessages(messages, AnalysisPriority.BACKFILL, new SmsAnalyzerService.BatchCallback() {
+            @Override
+            public void onResult(Message message, boolean isSpam, String resultMessage) {
+                // The analyzer has already saved the new status
+                processedIds.add(message.getId());
+            }
+
+            @Override
+            public void onError(Message message, String error) {
+                Log.e(TAG, "Error checking queued message " + message.getId() + ": " + error);
+                failedIds.add(message.getId());
+            }
+
+            @Override
+            public void onFallback(Message message, boolean isSpam, String resultMessage) {
+                // The local verdict stands until the backend confirms it on a later attempt
+                failedIds.add(message.getId());
+            }
+
+            @Override
+            public void onComplete() {
+                complete.countDown();
+            }
+        });
+        try {
+            if (!complete.await(BATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Batch of " + messages.size() + " did not complete in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.smsshield.analysis;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the filter the way the classifier uses it: hosts found by
+ * {@link UrlScanner} in normalized message text, looked up against a filter
+ * built from the raw domain list.
+ */
+public class DomainReputationFilterTest {
+
+    private static DomainReputationFilter filter;
+
+    @BeforeClass
+    public static void buildFilter() throws IOException {
+        String list = "# test list\n"
+                + "paypa1-x.com\n"
+                + "amaz0n-verify.com\n"
+                + "www.B4NK-LOGIN.net\n"
+                + "\n";
+        filter = new DomainReputationFilter(DomainReputationFilter.build(new StringReader(list), 0.001));
+    }
+
+    @Test
+    public void digitSubstitutedEntriesMatchNormalizedText() {
+        assertTrue(listed("Your account is locked, verify at http://paypa1-x.com/login"));
+        // The normalizer reads the '0' between two letters as 'o'
+        assertTrue(listed("Confirm your order on amaz0n-verify.com today"));
+        assertTrue(listed("Sign in at https://www.b4nk-login.net now"));
+    }
+
+    @Test
+    public void lookAlikeSpellingsOfAnEntryMatch() {
+        assertTrue(listed("Confirm your order on amazon-verify.com today"));
+        assertTrue(listed("Confirm your order on AMAZ0N-VERIFY.COM today"));
+    }
+
+    @Test
+    public void subdomainsOfAnEntryMatch() {
+        assertTrue(listed("Log in at secure.amaz0n-verify.com/account"));
+    }
+
+    @Test
+    public void unlistedHostsDoNotMatch() {
+        assertFalse(listed("Your parcel is on its way, track it at https://example.org/track"));
+        assertFalse(listed("Visit amazon.com for details"));
+    }
+
+    private static boolean listed(String message) {
+        TextNormalizer text = new TextNormalizer().normalize(message);
+        UrlScanner scanner = new UrlScanner();
+        int hosts = scanner.scan(text);
+        for (int i = 0; i < hosts; i++) {
+            if (filter.mightContainHost(text, scanner.getHostStart(i), scanner.getHostEnd(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.smsshield.analysis;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks how text is split into word and trigram features.
+ */
+public class FeatureHasherTest {
+
+    private final FeatureHasher hasher = new FeatureHasher();
+
+    @Test
+    public void countsWordsAndOneTrigramPerCharacter() {
+        // Each word of n characters gives n trigrams, boundaries included
+        assertEquals(3 + 9, hasher.extract("Win a prize!"));
+        assertEquals(3, hasher.getWordCount());
+        assertEquals(9, hasher.getNgramCount());
+    }
+
+    @Test
+    public void ignoresCaseAndPunctuation() {
+        assertEquals(words("Claim your prize"), words("CLAIM, your... prize!"));
+    }
+
+    @Test
+    public void foldsDigitsTogether() {
+        assertEquals(words("Pay 100 now"), words("Pay 250 now"));
+        assertNotEquals(words("Pay 100 now"), words("Pay 1000 now"));
+    }
+
+    @Test
+    public void wordAndTrigramHashesAreSeededApart() {
+        // "ab" gives the trigrams " ab" and "ab ", neither of which may collide with the word
+        hasher.extract("ab");
+        Set<Integer> ngrams = new HashSet<>();
+        for (int i = 0; i < hasher.getNgramCount(); i++) {
+            ngrams.add(hasher.getNgramHash(i));
+        }
+        assertEquals(2, ngrams.size());
+        assertFalse(ngrams.contains(hasher.getWordHash(0)));
+    }
+
+    @Test
+    public void growsForLongMessages() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("word").append(' ');
+        }
+        assertEquals(500 + 2000, hasher.extract(text));
+        assertEquals(500, hasher.getWordCount());
+    }
+
+    private Set<Integer> words(String text) {
+        hasher.extract(text);
+        Set<Integer> words = new HashSet<>();
+        for (int i = 0; i < hasher.getWordCount(); i++) {
+            words.add(hasher.getWordHash(i));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.smsshield.analysis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the automaton finds every phrase occurrence in one pass,
+ * overlapping and case-insensitive, and reports them by end offset.
+ */
+public class KeywordMatcherTest {
+
+    @Test
+    public void findsOverlappingPhrasesInOrderOfTheirEnd() {
+        KeywordMatcher matcher = new KeywordMatcher("he", "she", "his", "hers");
+        List<String> hits = new ArrayList<>();
+        matcher.scan("ushers", (pattern, start, end) ->
+                hits.add(matcher.getPattern(pattern) + "@" + start + "-" + end));
+        assertEquals(List.of("she@1-4", "he@2-4", "hers@2-6"), hits);
+    }
+
+    @Test
+    public void ignoresCase() {
+        KeywordMatcher matcher = new KeywordMatcher("Free Prize");
+        assertEquals(1L, matcher.matchMask("You won a FREE PRIZE today"));
+        assertEquals("free prize", matcher.getPattern(0));
+    }
+
+    @Test
+    public void maskHasABitPerPhraseFound() {
+        KeywordMatcher matcher = new KeywordMatcher("urgent", "winner", "click", "$");
+        assertEquals(0b1101L, matcher.matchMask("Urgent: click to claim $500"));
+        assertEquals(0L, matcher.matchMask("See you at lunch"));
+    }
+
+    @Test
+    public void matchesNonAsciiPhrases() {
+        KeywordMatcher matcher = new KeywordMatcher("\u20ac", "gratuit");
+        assertEquals(0b11L, matcher.matchMask("Cadeau gratuit de 100\u20ac"));
+    }
+
+    @Test
+    public void matchesPhrasesSharingASuffix() {
+        // "prize" ends inside "surprize" after the failure link drops "sur"
+        KeywordMatcher matcher = new KeywordMatcher("surprise", "prize");
+        assertEquals(0b10L, matcher.matchMask("a surprize for you"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPhrases() {
+        new KeywordMatcher("ok", "");
+    }
+}
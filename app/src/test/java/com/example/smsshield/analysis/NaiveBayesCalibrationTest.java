@@ -0,0 +1,142 @@
+package com.example.smsshield.analysis;
+
+import com.example.smsshield.api.SmsAnalyzerService;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the local model's probabilities are calibrated: messages it
+ * was not trained on get spread over the range instead of being pushed to
+ * 0 or 1, so a confidence band actually sends some of them to the backend.
+ */
+public class NaiveBayesCalibrationTest {
+
+    // Every HOLD_OUT-th message of each class is kept out of training
+    private static final int HOLD_OUT = 5;
+    // The band the app ships with
+    private static final float SAFE_BELOW = SmsAnalyzerService.DEFAULT_SAFE_BELOW;
+    private static final float SPAM_ABOVE = SmsAnalyzerService.DEFAULT_SPAM_ABOVE;
+
+    private static final List<String> heldOutSpam = new ArrayList<>();
+    private static final List<String> heldOutHam = new ArrayList<>();
+    private static NaiveBayesClassifier classifier;
+
+    @BeforeClass
+    public static void trainWithoutHeldOut() throws IOException {
+        StringBuilder training = new StringBuilder();
+        int spamSeen = 0;
+        int hamSeen = 0;
+        for (String line : Files.readAllLines(corpusFile().toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("spam\t") && spamSeen++ % HOLD_OUT == 0) {
+                heldOutSpam.add(line.substring(5));
+            } else if (line.startsWith("ham\t") && hamSeen++ % HOLD_OUT == 0) {
+                heldOutHam.add(line.substring(4));
+            } else {
+                training.append(line).append('\n');
+            }
+        }
+        classifier = NaiveBayesClassifier.train(new StringReader(training.toString()));
+    }
+
+    @Test
+    public void someHeldOutMessagesFallInsideTheBand() {
+        int inside = 0;
+        int total = 0;
+        for (List<String> messages : List.of(heldOutSpam, heldOutHam)) {
+            for (String message : messages) {
+                float p = probability(message);
+                if (p >= SAFE_BELOW && p < SPAM_ABOVE) {
+                    inside++;
+                }
+                total++;
+            }
+        }
+        assertTrue("Only " + inside + " of " + total + " held-out messages inside the band", inside > 0);
+        // Calibrated, not flattened: most messages are still decided with some confidence
+        assertTrue(inside + " of " + total + " held-out messages inside the band", inside < total);
+    }
+
+    @Test
+    public void heldOutMessagesOutsideTheBandAreDecidedCorrectly() {
+        int decided = 0;
+        for (String message : heldOutSpam) {
+            float p = probability(message);
+            if (p < SAFE_BELOW || p >= SPAM_ABOVE) {
+                assertTrue("Spam scored " + p + ": " + message, p >= SPAM_ABOVE);
+                decided++;
+            }
+        }
+        for (String message : heldOutHam) {
+            float p = probability(message);
+            if (p < SAFE_BELOW || p >= SPAM_ABOVE) {
+                assertTrue("Ham scored " + p + ": " + message, p < SAFE_BELOW);
+                decided++;
+            }
+        }
+        // Otherwise the device never decides anything and every message costs a backend call
+        assertTrue("No held-out message decided on the device", decided > 0);
+    }
+
+    @Test
+    public void heldOutMessagesAreMostlyRanked() {
+        int correct = 0;
+        for (String message : heldOutSpam) {
+            if (probability(message) >= 0.5f) {
+                correct++;
+            }
+        }
+        for (String message : heldOutHam) {
+            if (probability(message) < 0.5f) {
+                correct++;
+            }
+        }
+        int total = heldOutSpam.size() + heldOutHam.size();
+        assertTrue(correct + " of " + total + " held-out messages classified correctly", correct * 4 >= total * 3);
+    }
+
+    @Test
+    public void legitimateNoticesAreNotCertainSpam() {
+        // Both used to score 0.99 or more
+        assertTrue(probability("Your Amazon order #402-118 has shipped and will arrive on Thursday.") < SPAM_ABOVE);
+        assertTrue(probability("Your electricity bill of Rs 1,240 is due on 15 Oct. Pay via the app.") < SPAM_ABOVE);
+    }
+
+    @Test
+    public void fitLogisticRecoversAKnownCurve() {
+        // Scores drawn evenly from a curve with slope 2 and intercept -1
+        int n = 2000;
+        double[] scores = new double[n];
+        boolean[] spam = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = -3 + 6.0 * (i / 20) / (n / 20 - 1);
+            double p = 1 / (1 + Math.exp(-(2 * scores[i] - 1)));
+            // Within each group of 20 equal scores, the first p * 20 are spam
+            spam[i] = (i % 20) < Math.round(p * 20);
+        }
+        double[] fit = NaiveBayesTrainer.fitLogistic(scores, spam);
+        assertEquals(2.0, fit[0], 0.2);
+        assertEquals(-1.0, fit[1], 0.2);
+    }
+
+    private static float probability(String message) {
+        return classifier.spamProbability(new TextNormalizer().normalize(message));
+    }
+
+    // Unit tests run from the module directory under Gradle
+    static File corpusFile() {
+        File file = new File("src/main/assets/" + NaiveBayesClassifier.CORPUS_ASSET);
+        return file.isFile() ? file : new File("app/src/main/assets/" + NaiveBayesClassifier.CORPUS_ASSET);
+    }
+}
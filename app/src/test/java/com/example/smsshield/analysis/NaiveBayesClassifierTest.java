@@ -0,0 +1,91 @@
+package com.example.smsshield.analysis;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the model file format and that a model trained on the shipped
+ * corpus tells obvious spam from ordinary messages.
+ */
+public class NaiveBayesClassifierTest {
+
+    private static ByteBuffer model;
+    private static NaiveBayesClassifier classifier;
+
+    @BeforeClass
+    public static void train() throws IOException {
+        try (Reader corpus = new InputStreamReader(
+                Files.newInputStream(NaiveBayesCalibrationTest.corpusFile().toPath()), StandardCharsets.UTF_8)) {
+            model = NaiveBayesTrainer.train(corpus);
+        }
+        classifier = NaiveBayesClassifier.fromBuffer(model);
+    }
+
+    @Test
+    public void separatesSpamFromOrdinaryMessages() {
+        assertTrue(probability("WINNER!! You have won a free prize, call now to claim your cash reward")
+                > probability("Are we still on for dinner tonight? I can pick you up at seven"));
+        assertTrue(score("URGENT! Claim your free cash prize now, text WIN to 80086") > 0);
+        assertTrue(score("Ok, see you at home later") < 0);
+    }
+
+    @Test
+    public void scoreAndProbabilityAgree() {
+        String text = "Congratulations, you have been selected for a free holiday";
+        double expected = 1 / (1 + Math.exp(-score(text)));
+        assertEquals(expected, probability(text), 1e-6);
+    }
+
+    @Test
+    public void emptyTextScoresTheIntercept() {
+        float empty = score("");
+        assertEquals(empty, score("!!! ... ???"), 0f);
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        assertRejected(ByteBuffer.allocate(8));
+
+        ByteBuffer wrongVersion = copyOfModel();
+        wrongVersion.putInt(4, NaiveBayesClassifier.FORMAT_VERSION + 1);
+        assertRejected(wrongVersion);
+
+        ByteBuffer truncated = copyOfModel();
+        truncated.limit(NaiveBayesClassifier.HEADER_SIZE + 16);
+        assertRejected(truncated);
+    }
+
+    private static float score(String text) {
+        return classifier.score(TextNormalizer.normalizeToString(text));
+    }
+
+    private static float probability(String text) {
+        return classifier.spamProbability(TextNormalizer.normalizeToString(text));
+    }
+
+    private static ByteBuffer copyOfModel() {
+        ByteBuffer copy = ByteBuffer.allocate(model.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(model.duplicate().position(0));
+        return copy.position(0);
+    }
+
+    private static void assertRejected(ByteBuffer file) {
+        try {
+            NaiveBayesClassifier.fromBuffer(file);
+            fail("Accepted a file that is not a valid model");
+        } catch (IOException expected) {
+        }
+    }
+}
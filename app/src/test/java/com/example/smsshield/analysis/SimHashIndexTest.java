@@ -0,0 +1,70 @@
+package com.example.smsshield.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that variants of a campaign message land near each other, that
+ * unrelated messages do not, and that the index evicts its oldest entries.
+ */
+public class SimHashIndexTest {
+
+    private static final String CAMPAIGN =
+            "Your parcel 4821 is held at the depot, pay the 2.99 fee at the link to release it";
+
+    @Test
+    public void amountsCodesAndLookAlikesDoNotMoveTheFingerprint() {
+        long original = SimHashIndex.fingerprint(CAMPAIGN);
+        assertNotEquals(0, original);
+        assertEquals(original, SimHashIndex.fingerprint(
+                "YOUR PARCEL 7730 is held at the dep0t, pay the 1.45 fee at the link to release it"));
+    }
+
+    @Test
+    public void findsVariantsOfAnIndexedMessage() {
+        SimHashIndex index = new SimHashIndex();
+        index.add(SimHashIndex.fingerprint(CAMPAIGN));
+        assertTrue(index.containsNear(SimHashIndex.fingerprint(
+                "Your parcel 1177 is held at the depot, pay the 3.50 fee at the link to release it")));
+        assertFalse(index.containsNear(SimHashIndex.fingerprint(
+                "Running late, start the meeting without me and I will join in ten minutes")));
+    }
+
+    @Test
+    public void shortMessagesAreNotFingerprinted() {
+        assertEquals(0, SimHashIndex.fingerprint("Call me back later"));
+        SimHashIndex index = new SimHashIndex();
+        index.add(0);
+        assertEquals(0, index.size());
+        assertFalse(index.containsNear(0));
+    }
+
+    @Test
+    public void matchesWithinTheMaximumDistanceOnly() {
+        SimHashIndex index = new SimHashIndex();
+        long fingerprint = 0x0123456789abcdefL;
+        index.add(fingerprint);
+        // One bit flipped in each band but the last
+        long near = fingerprint ^ 0x0001000100010000L;
+        assertTrue(index.containsNear(near));
+        long far = near ^ 0x0000000000000001L;
+        assertFalse(index.containsNear(far));
+    }
+
+    @Test
+    public void evictsTheOldestOnceFull() {
+        SimHashIndex index = new SimHashIndex();
+        for (long i = 1; i <= SimHashIndex.CAPACITY + 1; i++) {
+            // Far apart from each other, so only exact entries match
+            index.add(i * 0x9e3779b97f4a7c15L);
+        }
+        assertEquals(SimHashIndex.CAPACITY, index.size());
+        assertFalse(index.containsNear(0x9e3779b97f4a7c15L));
+        assertTrue(index.containsNear(2 * 0x9e3779b97f4a7c15L));
+        assertTrue(index.containsNear((SimHashIndex.CAPACITY + 1) * 0x9e3779b97f4a7c15L));
+    }
+}
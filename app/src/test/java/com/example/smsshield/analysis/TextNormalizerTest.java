@@ -0,0 +1,66 @@
+package com.example.smsshield.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that look-alike spellings fold to the text they imitate, and that
+ * ordinary digits and symbols are left alone.
+ */
+public class TextNormalizerTest {
+
+    @Test
+    public void lowercasesAndFoldsAccents() {
+        assertEquals("cafe deja vu", TextNormalizer.normalizeToString("Caf\u00e9 D\u00c9J\u00c0 vu"));
+    }
+
+    @Test
+    public void foldsHomoglyphs() {
+        // Greek capital rho and Cyrillic a
+        assertEquals("paypal", TextNormalizer.normalizeToString("\u03a1\u0430yp\u0430l"));
+        // Full-width letters
+        assertEquals("free", TextNormalizer.normalizeToString("\uff26\uff52\uff45\uff45"));
+        // Mathematical bold, outside the Basic Multilingual Plane
+        assertEquals("win", TextNormalizer.normalizeToString("\ud835\udc30\ud835\udc22\ud835\udc27"));
+    }
+
+    @Test
+    public void dropsInvisibleCharacters() {
+        // Zero-width space and soft hyphen
+        assertEquals("click", TextNormalizer.normalizeToString("cl\u200bi\u00adck"));
+        // Combining acute accent
+        assertEquals("cafe", TextNormalizer.normalizeToString("cafe\u0301"));
+    }
+
+    @Test
+    public void turnsUnicodeSpacesIntoSpaces() {
+        assertEquals("a b c", TextNormalizer.normalizeToString("a\u2003b\u00a0c"));
+    }
+
+    @Test
+    public void readsDigitsAndSymbolsBetweenLettersAsLetters() {
+        assertEquals("password", TextNormalizer.normalizeToString("p4ssw0rd"));
+        assertEquals("cash", TextNormalizer.normalizeToString("CA$H"));
+        assertEquals("free", TextNormalizer.normalizeToString("fr\u20ace"));
+    }
+
+    @Test
+    public void leavesNumbersAndAddressesAlone() {
+        assertEquals("pay $500 by 10/4", TextNormalizer.normalizeToString("Pay $500 by 10/4"));
+        assertEquals("a1 b2", TextNormalizer.normalizeToString("A1 B2"));
+        assertEquals("me@example.com", TextNormalizer.normalizeToString("me@example.com"));
+    }
+
+    @Test
+    public void reusesItsBufferAcrossCalls() {
+        TextNormalizer normalizer = new TextNormalizer();
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("Word ");
+        }
+        assertEquals(500, normalizer.normalize(longText).length());
+        assertEquals("short", normalizer.normalize("SHORT").toString());
+        assertEquals(0, normalizer.normalize(null).length());
+    }
+}
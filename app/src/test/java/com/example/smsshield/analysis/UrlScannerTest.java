@@ -0,0 +1,93 @@
+package com.example.smsshield.analysis;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which hosts the scanner finds in message text, and the offsets and
+ * flags it reports for them.
+ */
+public class UrlScannerTest {
+
+    private final UrlScanner scanner = new UrlScanner();
+
+    @Test
+    public void findsHostsWithAndWithoutScheme() {
+        assertEquals(List.of("example.com", "paypal-login.net"),
+                hosts("Go to https://example.com/a?b=c or paypal-login.net."));
+    }
+
+    @Test
+    public void reportsOffsetsIntoTheText() {
+        String text = "See http://www.example.org/x";
+        assertEquals(1, scanner.scan(text));
+        assertEquals(text.indexOf("example"), scanner.getHostStart(0));
+        assertEquals(text.indexOf("/x"), scanner.getHostEnd(0));
+        assertEquals(UrlScanner.FLAG_SCHEME | UrlScanner.FLAG_WWW, scanner.getFlags(0));
+    }
+
+    @Test
+    public void flagsShorteners() {
+        assertEquals(List.of("bit.ly"), hosts("Claim now: bit.ly/3xYz"));
+        assertEquals(UrlScanner.FLAG_SHORTENER, scanner.getCombinedFlags());
+    }
+
+    @Test
+    public void trimsSentencePunctuation() {
+        assertEquals(List.of("example.com"), hosts("It is on example.com... really"));
+    }
+
+    @Test
+    public void bareHostsNeedATopLevelDomain() {
+        assertEquals(List.of(), hosts("Version 2.5 is out, see file.7z or a.b"));
+        assertEquals(List.of("localhost"), hosts("http://localhost"));
+    }
+
+    @Test
+    public void skipsEmailAddressesAndEmptyLabels() {
+        assertEquals(List.of(), hosts("Mail support@example.com"));
+        assertEquals(List.of(), hosts("Odd text like a..b"));
+    }
+
+    @Test
+    public void findsHostsAfterARunOfDots() {
+        assertEquals(List.of("evil.com"), hosts("Claim now...evil.com"));
+        assertEquals(List.of("evil.com"), hosts("Go ..evil.com/login"));
+        // What follows the dots still needs a top-level domain of its own
+        assertEquals(List.of(), hosts("Odd text like example..com"));
+    }
+
+    @Test
+    public void flagsShortenersAWordRanInto() {
+        assertEquals(List.of("prize.bit.ly"), hosts("You won a prize.bit.ly/x"));
+        assertEquals(UrlScanner.FLAG_SHORTENER, scanner.getCombinedFlags());
+        // Only whole labels count
+        assertEquals(List.of("orbit.ly"), hosts("See orbit.ly"));
+        assertEquals(0, scanner.getCombinedFlags());
+    }
+
+    @Test
+    public void findsLinksAfterAnEqualsSignOrASlash() {
+        assertEquals(List.of("phish.example"), hosts("Track:url=http://phish.example/login"));
+        assertEquals(List.of("phish.example"), hosts("Open ../http://phish.example now"));
+        assertEquals(List.of("phish.example"), hosts("Reply Y/phish.example to confirm"));
+    }
+
+    @Test
+    public void doesNotScanThePathOfAUrl() {
+        assertEquals(List.of("example.com"), hosts("https://example.com/evil.com/page"));
+    }
+
+    private List<String> hosts(String text) {
+        int count = scanner.scan(text);
+        List<String> hosts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hosts.add(scanner.getHost(text, i));
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.smsshield.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the breaker opens on a high failure rate, lets a single probe
+ * through once the open period is over, and closes or reopens on its outcome.
+ */
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MS = 30000;
+    private static final long PROBE_TIMEOUT_MS = 5000;
+
+    private long now = 1000;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        // Opens once half of at least 4 of the last 10 outcomes are failures
+        breaker = new CircuitBreaker(() -> now, 10, 4, 0.5f, OPEN_MS, PROBE_TIMEOUT_MS);
+    }
+
+    @Test
+    public void staysClosedUntilEnoughCallsFailed() {
+        record(true, true, true);
+        // Three failures are fewer calls than the minimum
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        record(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.acquire());
+        assertTrue(breaker.isRejecting());
+    }
+
+    @Test
+    public void opensAtTheFailureRateOfTheWindow() {
+        record(false, false, false, false, false, false, true, true, true, true);
+        // Four failures in the last ten calls
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // Pushes the oldest success out of the window: five in ten
+        record(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void probesOnceTheOpenPeriodIsOver() {
+        open();
+        now += OPEN_MS;
+        assertFalse(breaker.isRejecting());
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.acquire());
+        // Everyone else waits for the probe
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.acquire());
+
+        breaker.record(false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.ALLOWED, breaker.acquire());
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        open();
+        now += OPEN_MS;
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.acquire());
+        breaker.record(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now += OPEN_MS - 1;
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.acquire());
+    }
+
+    @Test
+    public void unansweredProbeIsReplacedAfterItsTimeout() {
+        open();
+        now += OPEN_MS;
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.acquire());
+        now += PROBE_TIMEOUT_MS - 1;
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.acquire());
+        now += 1;
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.acquire());
+    }
+
+    @Test
+    public void abandonedProbeIsReplacedAtOnce() {
+        open();
+        now += OPEN_MS;
+        CircuitBreaker.Permit probe = breaker.acquire();
+        breaker.abandon(probe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.acquire());
+    }
+
+    @Test
+    public void latecomersDoNotDecideAnOpenBreaker() {
+        open();
+        record(false, false, false, false, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void open() {
+        record(true, true, true, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void record(boolean... failures) {
+        for (boolean failed : failures) {
+            breaker.record(failed);
+        }
+    }
+}
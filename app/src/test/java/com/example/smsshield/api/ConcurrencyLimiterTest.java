@@ -0,0 +1,131 @@
+package com.example.smsshield.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the limiter's AIMD: additive increase while saturated and fast,
+ * multiplicative decrease on failures and slow round trips, once per round
+ * trip and never below the floor.
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final String ANALYZE = "https://backend/analyze#0";
+    private static final String BATCH = "https://backend/analyze/batch#3";
+    private static final long RTT_MS = 100;
+
+    private long now = 10000;
+    private ConcurrencyLimiter limiter;
+    private final List<String> started = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        limiter = new ConcurrencyLimiter(() -> now, 4, 1, 8, 2.0, 0.5, 1);
+    }
+
+    @Test
+    public void growsByAboutOnePerRoundWhileSaturated() {
+        fill(4);
+        // One queued task keeps the limiter saturated after each release
+        submit(AnalysisPriority.BACKFILL);
+        // 1/4 + 1/4.25 + ... passes one on the fifth release
+        for (int i = 0; i < 4; i++) {
+            limiter.release(ANALYZE, RTT_MS, false);
+            submit(AnalysisPriority.BACKFILL);
+        }
+        assertEquals(4, limiter.getLimit());
+        limiter.release(ANALYZE, RTT_MS, false);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void doesNotGrowWhileUnderTheLimit() {
+        for (int i = 0; i < 20; i++) {
+            submit(AnalysisPriority.BACKFILL);
+            limiter.release(ANALYZE, RTT_MS, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void neverGrowsPastTheMaximum() {
+        // Enough waiting work to keep every slot the limit grows into busy
+        fill(16);
+        for (int i = 0; i < 200; i++) {
+            submit(AnalysisPriority.BACKFILL);
+            limiter.release(ANALYZE, RTT_MS, false);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void halvesOnFailureOncePerRoundTrip() {
+        fill(4);
+        limiter.release(ANALYZE, RTT_MS, true);
+        assertEquals(2, limiter.getLimit());
+
+        // Sent before the decrease, so it saw the same congestion
+        now += RTT_MS / 2;
+        limiter.release(ANALYZE, RTT_MS, true);
+        assertEquals(2, limiter.getLimit());
+
+        now += RTT_MS;
+        limiter.release(ANALYZE, RTT_MS, true);
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void halvesOnSlowRoundTrip() {
+        fill(4);
+        limiter.release(ANALYZE, RTT_MS, false);
+        now += 1000;
+        limiter.release(ANALYZE, 3 * RTT_MS, false);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void staysAtTheFloor() {
+        for (int i = 0; i < 10; i++) {
+            submit(AnalysisPriority.BACKFILL);
+            now += 1000;
+            limiter.release(ANALYZE, RTT_MS, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void baselinesAreKeptPerClass() {
+        fill(4);
+        limiter.release(ANALYZE, RTT_MS, false);
+        now += 1000;
+        // Much slower than a single message, but the first of its class
+        limiter.release(BATCH, 10 * RTT_MS, false);
+        now += 1000;
+        limiter.release(BATCH, 12 * RTT_MS, false);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void releaseWithoutRoundTripDoesNotAdjust() {
+        fill(4);
+        limiter.release();
+        limiter.release();
+        assertEquals(4, limiter.getLimit());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    private void fill(int tasks) {
+        for (int i = 0; i < tasks; i++) {
+            submit(AnalysisPriority.BACKFILL);
+        }
+    }
+
+    private void submit(AnalysisPriority priority) {
+        limiter.submit(priority, () -> started.add(priority.name()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.smsshield.api;
+
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that retries spend one deadline, and that a bulk request's budget
+ * only starts when it is sent.
+ */
+public class DeadlineRetryPolicyTest {
+
+    private long now = 1000;
+
+    @Test
+    public void timeoutIsCutToTheDeadline() {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(() -> now, now + 2000, 0, 15000, 2, 1.5f);
+        assertEquals(2000, policy.getCurrentTimeout());
+        now += 1500;
+        assertEquals(500, policy.getCurrentTimeout());
+    }
+
+    @Test
+    public void noRetryOnceTheBudgetIsSpent() throws VolleyError {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(() -> now, now + 2000, 0, 500, 2, 1.5f);
+        now += 500;
+        policy.retry(new TimeoutError());
+        assertEquals(1, policy.getCurrentRetryCount());
+
+        now += 1300;
+        VolleyError error = new TimeoutError();
+        try {
+            policy.retry(error);
+            fail("Retried with 200 ms left");
+        } catch (VolleyError thrown) {
+            assertSame(error, thrown);
+        }
+    }
+
+    @Test
+    public void stopsAtMaxRetriesWithTimeLeft() throws VolleyError {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(() -> now, now + 60000, 0, 100, 1, 1f);
+        policy.retry(new TimeoutError());
+        try {
+            policy.retry(new TimeoutError());
+            fail("Retried past maxRetries");
+        } catch (VolleyError expected) {
+            assertEquals(2, policy.getCurrentRetryCount());
+        }
+    }
+
+    @Test
+    public void budgetStartsAtFirstSend() {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(
+                () -> now, Long.MIN_VALUE, 30000, 15000, 2, 1.5f);
+        // Queued behind a long import: no time is spent before it is sent
+        now += 120000;
+        assertTrue(policy.hasTimeAfter(0));
+        assertEquals(15000, policy.getCurrentTimeout());
+
+        policy.start();
+        now += 29900;
+        assertFalse(policy.hasTimeAfter(0));
+        assertEquals(100, policy.getCurrentTimeout());
+    }
+
+    @Test
+    public void startDoesNotMoveAFixedDeadline() {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(() -> now, now + 1000, 0, 15000, 2, 1.5f);
+        now += 900;
+        policy.start();
+        assertFalse(policy.hasTimeAfter(0));
+    }
+
+    @Test
+    public void hasTimeAfterCountsTheDelay() {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(() -> now, now + 1000, 0, 15000, 2, 1.5f);
+        assertTrue(policy.hasTimeAfter(500));
+        assertFalse(policy.hasTimeAfter(800));
+    }
+}
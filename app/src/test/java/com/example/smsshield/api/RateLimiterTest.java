@@ -0,0 +1,100 @@
+package com.example.smsshield.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the token bucket: a free burst, waits spread at the refill rate,
+ * no credit for work nobody waits on, and a shared pause after a 429.
+ */
+public class RateLimiterTest {
+
+    private long now = 1000;
+    private RateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        // One token every 100 ms, two at once after an idle period
+        limiter = new RateLimiter(() -> now, 10, 2);
+    }
+
+    @Test
+    public void burstIsFreeThenWaitsAreSpreadOut() {
+        assertEquals(0, limiter.acquire());
+        assertEquals(0, limiter.acquire());
+        assertEquals(100, limiter.acquire());
+        assertEquals(200, limiter.acquire());
+    }
+
+    @Test
+    public void refillsUpToTheBurst() {
+        limiter.acquire();
+        limiter.acquire();
+        now += 10000;
+        assertEquals(0, limiter.acquire());
+        assertEquals(0, limiter.acquire());
+        assertEquals(100, limiter.acquire());
+    }
+
+    @Test
+    public void tryAcquireNeverTakesCredit() {
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(100, limiter.tryAcquire());
+        assertEquals(100, limiter.tryAcquire());
+        // Nothing was taken on credit, so an urgent request is not queued behind it
+        assertEquals(100, limiter.acquire());
+        // And bulk work waits behind the urgent request's credit
+        assertEquals(200, limiter.tryAcquire());
+    }
+
+    @Test
+    public void peekWaitDoesNotTakeAToken() {
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(100, limiter.peekWait());
+        assertEquals(100, limiter.peekWait());
+        assertEquals(100, limiter.acquire());
+    }
+
+    @Test
+    public void refundGivesATokenBack() {
+        limiter.acquire();
+        limiter.acquire();
+        limiter.refund();
+        assertEquals(0, limiter.acquire());
+    }
+
+    @Test
+    public void throttlingPausesEveryCaller() {
+        assertEquals(0, limiter.acquire());
+        // The bucket is emptied and does not refill until Retry-After has passed
+        assertEquals(1000 + 100, limiter.onThrottled(1000));
+        assertEquals(1000, limiter.pausedFor());
+        assertEquals(1000 + 100, limiter.acquire());
+        assertEquals(1000 + 200, limiter.tryAcquire());
+
+        now += 1000;
+        assertEquals(0, limiter.pausedFor());
+        assertEquals(200, limiter.acquire());
+    }
+
+    @Test
+    public void requeueTakesAPlaceAtTheEndOfTheLine() {
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(100, limiter.acquire());
+        assertEquals(200, limiter.acquire());
+        // The first waiter was refused; it gives its token back and queues behind the second
+        assertEquals(200, limiter.requeue());
+    }
+
+    @Test
+    public void setRateKeepsTheBalanceWithinTheNewBurst() {
+        limiter.setRate(100, 1);
+        assertEquals(0, limiter.acquire());
+        assertEquals(10, limiter.acquire());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.smsshield.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the log-linear bucketing and that percentiles read from it are
+ * within a bucket's width of the true value.
+ */
+public class HistogramTest {
+
+    @Test
+    public void smallValuesGetABucketEach() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, Histogram.bucketFor(value));
+            assertEquals(value, Histogram.lowerBound(value));
+        }
+        // From 16 on, each power of two is split into eight
+        assertEquals(Histogram.bucketFor(16), Histogram.bucketFor(17));
+        assertEquals(Histogram.bucketFor(16) + 1, Histogram.bucketFor(18));
+    }
+
+    @Test
+    public void bucketsAreContiguousAndNarrow() {
+        int last = Histogram.bucketFor(Long.MAX_VALUE);
+        for (int bucket = 0; bucket < last; bucket++) {
+            long low = Histogram.lowerBound(bucket);
+            long high = Histogram.lowerBound(bucket + 1) - 1;
+            assertEquals(bucket, Histogram.bucketFor(low));
+            assertEquals(bucket, Histogram.bucketFor(high));
+            // Never wider than an eighth of the values it holds
+            assertTrue("Bucket " + bucket + " is too wide", (high - low + 1) * 8 <= Math.max(8, low));
+        }
+    }
+
+    @Test
+    public void hugeValuesShareTheLastBucket() {
+        int last = Histogram.bucketFor(Long.MAX_VALUE);
+        assertEquals(last, Histogram.bucketFor(1L << 50));
+        assertTrue(Histogram.bucketFor(1L << 39) < last);
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        Histogram histogram = new Histogram();
+        assertEquals(-1, histogram.percentile(0.5));
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        long median = histogram.percentile(0.5);
+        assertTrue("Median " + median, median >= 500 && median <= 500 * 9 / 8);
+        long p99 = histogram.percentile(0.99);
+        assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+        // The top bucket is capped at the largest value recorded
+        assertEquals(1000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void keepsCountSumAndMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(40);
+        histogram.record(-5);
+        assertEquals(3, histogram.getCount());
+        // Negative values are recorded as 0
+        assertEquals(43, histogram.getSum());
+        assertEquals(40, histogram.getMax());
+        assertEquals(0, histogram.percentile(0.1));
+    }
+}